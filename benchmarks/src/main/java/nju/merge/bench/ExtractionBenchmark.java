@@ -0,0 +1,70 @@
+package nju.merge.bench;
+
+import nju.merge.core.DatasetCollector;
+import nju.merge.entity.MergeScenario;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tuple extraction from one conflict file, and the alignment of a hunk's context against the resolved file.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-bench.properties")
+public class ExtractionBenchmark {
+
+    @Param({"500", "20000"})
+    public int lines;
+
+    @Param({"5", "200"})
+    public int hunks;
+
+    private final DatasetCollector collector = new DatasetCollector();
+    private Fixtures.ConflictFile file;
+    private List<String> prefix;
+    private List<String> suffix;
+    private MergeScenario scenario;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        file = Fixtures.conflictFile(lines, hunks, 7);
+        int middle = file.conflict.size() / 2;
+        while(!file.conflict.get(middle).startsWith("<<<<<<<")) middle++;
+        int end = middle;
+        while(!file.conflict.get(end).startsWith(">>>>>>>")) end++;
+        prefix = file.conflict.subList(0, middle);
+        suffix = file.conflict.subList(end + 1, file.conflict.size());
+        scenario = new MergeScenario("bench", "", "F.java");
+        scenario.conflict = (String.join("\n", file.conflict) + "\n").getBytes(StandardCharsets.UTF_8);
+        scenario.truth = (String.join("\n", file.truth) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Object extractMergeTuples(){
+        return collector.extractMergeTuples(file.conflict, file.truth, "", "F.java");
+    }
+
+    /**
+     * Same file as {@link #extractMergeTuples()}, from its bytes: lines are split and compared without decoding.
+     */
+    @Benchmark
+    public Object extractFromBytes(){
+        return collector.extractMergeTuples(scenario);
+    }
+
+    @Benchmark
+    public int alignPrefix(){
+        return collector.alignLine(prefix, file.truth, true);
+    }
+
+    @Benchmark
+    public int alignSuffix(){
+        return collector.alignLine(suffix, file.truth, false);
+    }
+}
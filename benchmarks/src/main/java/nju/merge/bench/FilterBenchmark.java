@@ -0,0 +1,76 @@
+package nju.merge.bench;
+
+import nju.merge.core.DatasetFilter;
+import nju.merge.core.LineInterner;
+import nju.merge.entity.InternedTuple;
+import nju.merge.entity.MergeTuple;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The DatasetFilter predicates over a batch of tuples, on Strings and on interned line ids,
+ * and the interning that tuples loaded from JSON go through before they are classified.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-bench.properties")
+public class FilterBenchmark {
+
+    @Param({"20000"})
+    public int size;
+
+    private List<MergeTuple> tuples;
+    private List<InternedTuple> interned;
+    private final DatasetFilter filter = new DatasetFilter();
+    private final LineInterner interner = new LineInterner();
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        tuples = Fixtures.tuples(size, 13);
+        interned = tuples.stream().map(interner::intern).toList();
+    }
+
+    @Benchmark
+    public void stringPredicates(Blackhole bh){
+        for(MergeTuple t : tuples){
+            bh.consume(DatasetFilter.filterAcceptOneSide(t));
+            bh.consume(DatasetFilter.filterLackOfResolution(t));
+            bh.consume(DatasetFilter.filterIncompleteTuple(t));
+            bh.consume(DatasetFilter.filterConcat(t));
+            bh.consume(DatasetFilter.filterMixLine(t));
+            bh.consume(DatasetFilter.filterOutOfVocabularyLine(t));
+        }
+    }
+
+    @Benchmark
+    public void internedPredicates(Blackhole bh){
+        for(InternedTuple t : interned){
+            bh.consume(DatasetFilter.filterAcceptOneSide(t));
+            bh.consume(DatasetFilter.filterLackOfResolution(t));
+            bh.consume(DatasetFilter.filterIncompleteTuple(t));
+            bh.consume(DatasetFilter.filterConcat(t));
+            bh.consume(DatasetFilter.filterMixLine(t));
+            bh.consume(DatasetFilter.filterOutOfVocabularyLine(t));
+        }
+    }
+
+    @Benchmark
+    public void classify(Blackhole bh){
+        for(InternedTuple t : interned){
+            bh.consume(filter.classify(t));
+        }
+    }
+
+    @Benchmark
+    public void internAndClassify(Blackhole bh){
+        for(MergeTuple t : tuples){
+            bh.consume(filter.classify(interner.intern(t)));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package nju.merge.bench;
+
+import nju.merge.entity.MergeTuple;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the inputs of the benchmarks locally, from a seed, so every run measures the same data.
+ */
+public class Fixtures {
+
+    /**
+     * Java-like source line; {@code vocabulary} bounds the number of distinct lines, as braces and imports do in real code.
+     */
+    static String line(Random random, int vocabulary){
+        int v = random.nextInt(vocabulary);
+        return switch (v % 5) {
+            case 0 -> "    }";
+            case 1 -> "        int v" + v + " = compute(" + v + ");";
+            case 2 -> "import nju.merge.p" + v + ".C" + v + ";";
+            case 3 -> "    public void m" + v + "() {";
+            default -> "        log(\"" + v + "\");";
+        };
+    }
+
+    static List<String> lines(Random random, int n, int vocabulary){
+        List<String> ret = new ArrayList<>(n);
+        for(int i = 0; i < n; i++) ret.add(line(random, vocabulary));
+        return ret;
+    }
+
+    /**
+     * A conflict file in diff3 style and the resolved file it was resolved to.
+     */
+    static class ConflictFile {
+        final List<String> conflict = new ArrayList<>();
+        final List<String> truth = new ArrayList<>();
+    }
+
+    /**
+     * @param lines lines of common context in the file
+     * @param hunks conflict hunks spread evenly over the file; each side has 1-6 lines
+     */
+    static ConflictFile conflictFile(int lines, int hunks, long seed){
+        Random random = new Random(seed);
+        ConflictFile file = new ConflictFile();
+        int step = Math.max(1, lines / (hunks + 1));
+        for(int i = 0, h = 0; i < lines; i++){
+            String l = line(random, 500);
+            file.conflict.add(l);
+            file.truth.add(l);
+            if(h < hunks && (i + 1) % step == 0){
+                h++;
+                List<String> ours = lines(random, 1 + random.nextInt(6), 500);
+                List<String> base = lines(random, random.nextInt(4), 500);
+                List<String> theirs = lines(random, 1 + random.nextInt(6), 500);
+                file.conflict.add("<<<<<<< ours");
+                file.conflict.addAll(ours);
+                file.conflict.add("||||||| base");
+                file.conflict.addAll(base);
+                file.conflict.add("=======");
+                file.conflict.addAll(theirs);
+                file.conflict.add(">>>>>>> theirs");
+                // resolutions keep one side, concatenate both or mix in new lines
+                switch (random.nextInt(3)) {
+                    case 0 -> file.truth.addAll(ours);
+                    case 1 -> { file.truth.addAll(ours); file.truth.addAll(theirs); }
+                    default -> { file.truth.addAll(theirs.subList(0, 1)); file.truth.add(line(random, 5000)); }
+                }
+            }
+        }
+        return file;
+    }
+
+    static List<MergeTuple> tuples(int n, long seed){
+        Random random = new Random(seed);
+        List<MergeTuple> tuples = new ArrayList<>(n);
+        for(int i = 0; i < n; i++){
+            MergeTuple t = new MergeTuple();
+            t.path = "src/main/java/nju/merge/F" + random.nextInt(200) + ".java";
+            t.a = lines(random, 1 + random.nextInt(6), 300);
+            t.b = lines(random, 1 + random.nextInt(6), 300);
+            t.o = lines(random, random.nextInt(4), 300);
+            switch (random.nextInt(4)) {
+                case 0 -> t.r = new ArrayList<>(t.a);
+                case 1 -> { t.r = new ArrayList<>(t.a); t.r.addAll(t.b); }
+                case 2 -> t.r = lines(random, random.nextInt(4), 300);
+                default -> t.r = new ArrayList<>();
+            }
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    /**
+     * Scripts a repository on a single main branch with {@code merges} merges of short-lived branches.
+     * Every {@code conflictEvery}-th merge edits the same lines of a file on both sides and is resolved by hand;
+     * the others touch different files and merge cleanly.
+     */
+    static Path scriptedRepo(int merges, int files, int conflictEvery, long seed) throws Exception {
+        Random random = new Random(seed);
+        Path dir = Files.createTempDirectory("bench-repo");
+        try (Git git = Git.init().setDirectory(dir.toFile()).setInitialBranch("main").call()) {
+            List<List<String>> contents = new ArrayList<>();
+            for(int f = 0; f < files; f++){
+                contents.add(lines(random, 300, 2000));
+                write(dir, f, contents.get(f));
+            }
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("initial").setSign(false).call();
+
+            for(int m = 0; m < merges; m++){
+                int f = random.nextInt(files);
+                boolean conflict = m % conflictEvery == 0;
+                int at = random.nextInt(290);
+                String branch = "b" + m;
+                git.branchCreate().setName(branch).call();
+
+                git.checkout().setName(branch).call();
+                List<String> theirs = new ArrayList<>(contents.get(f));
+                for(int i = 0; i < 3; i++) theirs.set(at + i, line(random, 2000) + " // theirs " + m);
+                write(dir, f, theirs);
+                git.commit().setAll(true).setMessage("theirs " + m).setSign(false).call();
+
+                git.checkout().setName("main").call();
+                int g = conflict ? f : (f + 1) % files;
+                List<String> ours = new ArrayList<>(contents.get(g));
+                for(int i = 0; i < 3; i++) ours.set(at + i, line(random, 2000) + " // ours " + m);
+                write(dir, g, ours);
+                contents.set(g, ours);
+                git.commit().setAll(true).setMessage("ours " + m).setSign(false).call();
+
+                MergeResult result = git.merge().include(git.getRepository().resolve(branch)).setCommit(true).call();
+                if(result.getMergeStatus() == MergeResult.MergeStatus.CONFLICTING){
+                    List<String> resolved = new ArrayList<>(ours);
+                    resolved.addAll(at + 3, theirs.subList(at, at + 3));
+                    write(dir, f, resolved);
+                    contents.set(f, resolved);
+                    git.add().addFilepattern(".").call();
+                    git.commit().setMessage("merge " + m).setSign(false).call();
+                }else{
+                    if(g != f) contents.set(f, theirs);
+                }
+            }
+        }
+        return dir;
+    }
+
+    private static void write(Path dir, int f, List<String> lines) throws IOException {
+        Path file = dir.resolve("src/main/java/nju/merge/F" + f + ".java");
+        Files.createDirectories(file.getParent());
+        Files.write(file, lines);
+    }
+
+    static void delete(Path dir){
+        FileUtils.deleteQuietly(new File(dir.toString()));
+    }
+}
@@ -0,0 +1,46 @@
+package nju.merge.bench;
+
+import nju.merge.core.GitService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merge replay of a scripted repository: every merge is replayed and each conflicting file becomes a scenario in memory.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-bench.properties")
+public class ReplayBenchmark {
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"true", "false"})
+    public boolean precheck;
+
+    private Path repo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repo = Fixtures.scriptedRepo(60, 8, 3, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        Fixtures.delete(repo);
+    }
+
+    @Benchmark
+    public void replay(Blackhole bh) throws Exception {
+        GitService gitService = new GitService();
+        gitService.setThreads(threads);
+        gitService.setPrecheck(precheck);
+        gitService.collectAllConflicts(repo.toString(), "bench", null, null, bh::consume);
+    }
+}
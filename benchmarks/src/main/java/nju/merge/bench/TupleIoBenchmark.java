@@ -0,0 +1,65 @@
+package nju.merge.bench;
+
+import nju.merge.IO.*;
+import nju.merge.entity.MergeTuple;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and loading tuple files in each format.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-bench.properties")
+public class TupleIoBenchmark {
+
+    @Param({"json", "jsonl", "tuples"})
+    public String format;
+
+    @Param({"20000"})
+    public int size;
+
+    private List<MergeTuple> tuples;
+    private Path dir;
+    private String file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        tuples = Fixtures.tuples(size, 11);
+        dir = Files.createTempDirectory("bench-tuples");
+        file = write();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        Fixtures.delete(dir);
+    }
+
+    private String write() throws Exception {
+        try (TupleWriter writer = switch (format) {
+            case "json" -> new TupleJsonWriter(dir.toString(), "bench");
+            case "jsonl" -> new TupleJsonlWriter(dir.toString(), "bench");
+            default -> new TupleBinaryWriter(dir.toString(), "bench");
+        }) {
+            tuples.forEach(writer::write);
+        }
+        return PathUtil.getFileWithPathSegment(dir.toString(), "bench." + format);
+    }
+
+    @Benchmark
+    public String save() throws Exception {
+        return write();
+    }
+
+    @Benchmark
+    public List<MergeTuple> load() throws Exception {
+        return JSONUtils.loadTuplesFromJson(file);
+    }
+}
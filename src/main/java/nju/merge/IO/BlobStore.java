@@ -0,0 +1,59 @@
+package nju.merge.IO;
+
+import nju.merge.metrics.Metrics;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Content-addressed store of blobs under {@code <root>/<xx>/<remaining 38 hex digits>}.
+ * Each blob is written once; scenario files are hard links to it, or copies where it cannot be linked.
+ * Linking is given up for good when the file system has no hard links or the scenarios are on another one.
+ */
+public class BlobStore {
+
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter("bytes_written_total", "target", "conflict_files");
+
+    private final Path root;
+    private boolean linksSupported = true;
+
+    public BlobStore(String root){
+        this.root = Paths.get(PathUtil.getSystemCompatiblePath(root));
+    }
+
+    public Path getBlobPath(ObjectId id){
+        String name = id.name();
+        return root.resolve(name.substring(0, 2)).resolve(name.substring(2));
+    }
+
+    /**
+     * Makes {@code target} hold the blob's content, storing the blob first if it is new.
+     */
+    public void link(ObjectId id, byte[] bytes, Path target) throws IOException {
+        Path blob = getBlobPath(id);
+        if(!Files.exists(blob)){
+            Files.createDirectories(blob.getParent());
+            Path tmp = blob.resolveSibling(blob.getFileName() + ".tmp");
+            Files.write(tmp, bytes);
+            BYTES_WRITTEN.add(bytes.length);
+            Files.move(tmp, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.deleteIfExists(target);
+        if(linksSupported){
+            try {
+                Files.createLink(target, blob);
+                return;
+            } catch (UnsupportedOperationException e) {
+                linksSupported = false;
+            } catch (IOException e) {
+                // a link across file systems never works, other errors (e.g. too many links) only concern this blob
+                if(!Files.getFileStore(blob).equals(Files.getFileStore(target.getParent()))) linksSupported = false;
+            }
+        }
+        Files.copy(blob, target);
+    }
+}
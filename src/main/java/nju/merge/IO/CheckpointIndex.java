@@ -0,0 +1,98 @@
+package nju.merge.IO;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only record of the merge commits already replayed for one project, one {@code <sha> <status>} line each.
+ * Every record is flushed immediately, so a crashed run resumes right after the last finished commit.
+ * A commit may be recorded again, e.g. a FAILED one that is retried; its last record counts.
+ */
+public class CheckpointIndex implements Closeable {
+
+    public enum Status { CLEAN, CONFLICT, FAILED }
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointIndex.class);
+
+    private final Map<ObjectId, Status> processed = new HashMap<>();
+    private final Writer writer;
+
+    public CheckpointIndex(String path) throws IOException {
+        Path p = Paths.get(PathUtil.getSystemCompatiblePath(path));
+        boolean truncated = false;
+        if(Files.exists(p)) {
+            truncated = load(p);
+        } else if(p.getParent() != null) {
+            Files.createDirectories(p.getParent());
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(p.toFile(), true), StandardCharsets.US_ASCII));
+        if(truncated) {
+            writer.write("\n");
+        }
+        logger.info("checkpoint {} has {} processed merge commits", path, processed.size());
+    }
+
+    /**
+     * @return whether the file ends without a newline, i.e. the last record was cut off
+     */
+    private boolean load(Path p) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(p, StandardCharsets.US_ASCII)) {
+            String line;
+            while((line = reader.readLine()) != null){
+                String[] parts = line.split(" ");
+                // a run killed mid-write can leave a truncated last line
+                if(parts.length != 2 || !ObjectId.isId(parts[0])) continue;
+                try {
+                    processed.put(ObjectId.fromString(parts[0]), Status.valueOf(parts[1]));
+                } catch (IllegalArgumentException ignored) {
+                }
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(p.toFile(), "r")) {
+            if(raf.length() == 0) return false;
+            raf.seek(raf.length() - 1);
+            return raf.read() != '\n';
+        }
+    }
+
+    public boolean contains(AnyObjectId commit){
+        return processed.containsKey(commit);
+    }
+
+    /**
+     * @return whether the commit was replayed to the end, i.e. recorded and not FAILED, which a new run retries
+     */
+    public boolean isDone(AnyObjectId commit){
+        Status status = processed.get(commit);
+        return status != null && status != Status.FAILED;
+    }
+
+    public Status get(AnyObjectId commit){
+        return processed.get(commit);
+    }
+
+    public int size(){
+        return processed.size();
+    }
+
+    public synchronized void record(AnyObjectId commit, Status status) throws IOException {
+        processed.put(commit.copy(), status);
+        writer.write(commit.name() + " " + status.name() + "\n");
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -1,31 +1,51 @@
 package nju.merge.IO;
 
-import com.alibaba.fastjson.JSONArray;
-import com.alibaba.fastjson.JSONObject;
 import com.alibaba.fastjson.JSONReader;
 import nju.merge.entity.MergeTuple;
-import org.apache.commons.io.FileUtils;
+import nju.merge.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.OutputStreamWriter;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 
 public class JSONUtils {
     public static final Logger logger = LoggerFactory.getLogger(JSONUtils.class);
+    private static final Metrics.Timer DESERIALIZE_TIME = Metrics.timer("stage_seconds", "stage", "deserialize");
+    private static final Metrics.Counter BYTES_READ = Metrics.counter("bytes_read_total", "source", "tuples");
 
+    /**
+     * Loads {@code .json}, {@code .json.gz}, line-delimited {@code .jsonl} or binary {@code .tuples} files.
+     */
     public static List<MergeTuple> loadTuplesFromJson(String path) throws Exception{
         File json = new File(path);
         if(!json.exists()){
             logger.info("cant find JSON file : {}", path);
         }
+        long start = System.nanoTime();
+        List<MergeTuple> tuples = readTuples(path);
+        DESERIALIZE_TIME.observe(start);
+        BYTES_READ.add(json.length());
+        return tuples;
+    }
+
+    private static List<MergeTuple> readTuples(String path) throws Exception{
+        if(path.endsWith(".jsonl")){
+            return TupleJsonlReader.load(path);
+        }
+        if(path.endsWith(".tuples")){
+            return new TupleBinaryFile(path).toTuples();
+        }
         List<MergeTuple> tuples = new ArrayList<>();
-        JSONReader reader = new JSONReader(new FileReader(path));
+        InputStream is = new BufferedInputStream(new FileInputStream(path), 1 << 16);
+        if(path.endsWith(".gz")){
+            is = new GZIPInputStream(is, 1 << 16);
+        }
+        JSONReader reader = new JSONReader(new InputStreamReader(is, StandardCharsets.UTF_8));
         reader.startObject();
         while(reader.hasNext()){
             String k1 = reader.readString();
@@ -48,6 +68,10 @@ public class JSONUtils {
                             tmp.r = reader.readObject(List.class);
                         }else if("path".equals(key)){
                             tmp.path = reader.readObject(String.class);
+                        }else if("commitId".equals(key)){
+                            tmp.commitId = reader.readObject(String.class);
+                        }else{
+                            reader.readObject();
                         }
                     }
                     tmp.a = removeBlankLine(tmp.a);
@@ -67,30 +91,37 @@ public class JSONUtils {
 
 
     public static void writeTuples2Json(List<MergeTuple> tuples, String project, String output) throws Exception {
-        JSONObject json = new JSONObject();
-        json.put("Project", project);
-        JSONArray array = new JSONArray();
-        tuples.forEach(tuple -> {
-            JSONObject tmp = new JSONObject();
-            tmp.put("path", tuple.path);
-            tmp.put("a", tuple.a);
-            tmp.put("b", tuple.b);
-            tmp.put("o", tuple.o);
-            tmp.put("r", tuple.r);
-            array.add(tmp);
-        });
-        json.put("mergeTuples", array);
-        File dir = new File(output);
-        if(!dir.exists()) {
-            FileUtils.forceMkdir(dir);
+        try (TupleJsonWriter writer = new TupleJsonWriter(output, project)) {
+            tuples.forEach(writer::write);
+        }
+    }
+
+    /**
+     * Converts a tuple file of any format into {@code <output>/<project>.jsonl}.
+     */
+    public static void convert2Jsonl(String path, String project, String output) throws Exception {
+        try (TupleWriter writer = new TupleJsonlWriter(output, project)) {
+            loadTuplesFromJson(path).forEach(writer::write);
         }
-        OutputStreamWriter osw = new OutputStreamWriter(new FileOutputStream(PathUtil.getFileWithPathSegment(output , project + ".json")));
-        osw.write(json.toJSONString());
-        osw.flush();
-        osw.close();
     }
 
-    private static List<String> removeBlankLine(List<String> lines){
+    /**
+     * Converts a tuple file of any format into {@code <output>/<project>.tuples}.
+     */
+    public static void convert2Binary(String path, String project, String output) throws Exception {
+        try (TupleWriter writer = new TupleBinaryWriter(output, project)) {
+            loadTuplesFromJson(path).forEach(writer::write);
+        }
+    }
+
+    /**
+     * Converts a tuple file of any format into {@code <output>/<project>.json}.
+     */
+    public static void convert2Json(String path, String project, String output) throws Exception {
+        writeTuples2Json(loadTuplesFromJson(path), project, output);
+    }
+
+    public static List<String> removeBlankLine(List<String> lines){
         return lines.stream().filter(line -> !"".equals(line)).toList();
     }
 
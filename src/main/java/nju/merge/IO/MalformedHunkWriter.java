@@ -0,0 +1,71 @@
+package nju.merge.IO;
+
+import com.alibaba.fastjson.JSON;
+import nju.merge.entity.MalformedHunk;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.function.Consumer;
+
+/**
+ * Writes {@code <project>.jsonl}, one malformed hunk per line, from any thread.
+ * Unless it appends, the file of an earlier run is removed, and a new one is only created once there is a hunk to write.
+ */
+public class MalformedHunkWriter implements Consumer<MalformedHunk>, Closeable {
+
+    private final String output;
+    private final File file;
+    private final boolean append;
+    private Writer out;
+    private int count;
+
+    public MalformedHunkWriter(String output, String project) throws IOException {
+        this(output, project, false);
+    }
+
+    /**
+     * @param append keep the hunks of earlier runs, e.g. when a resumed run only replays the merges they did not
+     */
+    public MalformedHunkWriter(String output, String project, boolean append) throws IOException {
+        this.output = output;
+        this.append = append;
+        file = new File(PathUtil.getFileWithPathSegment(output, project + ".jsonl"));
+        if(!append) {
+            Files.deleteIfExists(file.toPath());
+        } else if(file.length() > 0) {
+            TupleJsonlWriter.dropPartialLine(file);
+        }
+    }
+
+    @Override
+    public synchronized void accept(MalformedHunk hunk){
+        try {
+            if(out == null) {
+                FileUtils.forceMkdir(new File(output));
+                out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), StandardCharsets.UTF_8));
+            }
+            out.write(JSON.toJSONString(hunk));
+            out.write('\n');
+            count++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized int getCount(){
+        return count;
+    }
+
+    public File getFile(){
+        return file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(out != null) {
+            out.close();
+        }
+    }
+}
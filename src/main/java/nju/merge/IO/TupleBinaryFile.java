@@ -0,0 +1,173 @@
+package nju.merge.IO;
+
+import nju.merge.entity.InternedTuple;
+import nju.merge.entity.MergeTuple;
+import nju.merge.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only, memory-mapped view of a file written by {@link TupleBinaryWriter}.
+ * Line ids are read straight from the mapping; a line's text is decoded once, on first use.
+ * <pre>
+ * int magic, int version
+ * int lineCount, int byteLength, int[lineCount + 1] byte offsets, byte[byteLength] UTF-8 text, padding to 4 bytes
+ * int tupleCount, int[tupleCount] path ids (-1 if none), int[tupleCount] commit ids (-1 if none)
+ * for a, b, o, r: int idCount, int[tupleCount + 1] start of each tuple in ids, int[idCount] ids
+ * </pre>
+ */
+public class TupleBinaryFile {
+
+    public static final int A = 0, B = 1, O = 2, R = 3;
+    private static final Metrics.Counter BYTES_READ = Metrics.counter("bytes_read_total", "source", "tuples");
+
+    private final ByteBuffer text;
+    private final IntBuffer textOffsets;
+    private final String[] lines;
+    private final IntBuffer paths;
+    private final IntBuffer commits;
+    private final IntBuffer[] starts = new IntBuffer[4];
+    private final IntBuffer[] ids = new IntBuffer[4];
+    private final int size;
+
+    public TupleBinaryFile(String path) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(Paths.get(path))) {
+            if(channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("tuple file larger than 2GB: " + path);
+            }
+            // the mapping stays valid after the channel is closed
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            BYTES_READ.add(channel.size());
+        }
+        if(buf.getInt() != TupleBinaryWriter.MAGIC) {
+            throw new IOException("not a tuple file: " + path);
+        }
+        int version = buf.getInt();
+        if(version != TupleBinaryWriter.VERSION) {
+            throw new IOException("unsupported tuple file version " + version + ": " + path);
+        }
+        int lineCount = buf.getInt();
+        int byteLength = buf.getInt();
+        textOffsets = ints(buf, lineCount + 1);
+        text = buf.slice(buf.position(), byteLength);
+        buf.position(buf.position() + (byteLength + 3) / 4 * 4);
+        lines = new String[lineCount];
+
+        size = buf.getInt();
+        paths = ints(buf, size);
+        commits = ints(buf, size);
+        for(int i = 0; i < 4; i++){
+            int count = buf.getInt();
+            starts[i] = ints(buf, size + 1);
+            ids[i] = ints(buf, count);
+        }
+    }
+
+    private static IntBuffer ints(ByteBuffer buf, int count){
+        IntBuffer ret = buf.slice(buf.position(), count * 4).asIntBuffer();
+        buf.position(buf.position() + count * 4);
+        return ret;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public int lineCount(){
+        return lines.length;
+    }
+
+    public synchronized String line(int id){
+        String line = lines[id];
+        if(line == null){
+            int from = textOffsets.get(id);
+            byte[] bytes = new byte[textOffsets.get(id + 1) - from];
+            text.get(from, bytes);
+            line = new String(bytes, StandardCharsets.UTF_8);
+            lines[id] = line;
+        }
+        return line;
+    }
+
+    public boolean isBlank(int id){
+        return textOffsets.get(id) == textOffsets.get(id + 1);
+    }
+
+    /**
+     * The tuple as ids into this file's dictionary, without blank lines.
+     */
+    public InternedTuple interned(int tuple){
+        return new InternedTuple(nonBlankIds(tuple, A), nonBlankIds(tuple, B), nonBlankIds(tuple, O), nonBlankIds(tuple, R));
+    }
+
+    private int[] nonBlankIds(int tuple, int side){
+        int[] ids = lineIds(tuple, side);
+        int n = 0;
+        for(int id : ids){
+            if(!isBlank(id)) ids[n++] = id;
+        }
+        return n == ids.length ? ids : Arrays.copyOf(ids, n);
+    }
+
+    public String path(int tuple){
+        int id = paths.get(tuple);
+        return id < 0 ? null : line(id);
+    }
+
+    public String commit(int tuple){
+        int id = commits.get(tuple);
+        return id < 0 ? null : line(id);
+    }
+
+    /**
+     * @param side one of {@link #A}, {@link #B}, {@link #O}, {@link #R}
+     */
+    public int[] lineIds(int tuple, int side){
+        int from = starts[side].get(tuple);
+        int[] ret = new int[starts[side].get(tuple + 1) - from];
+        ids[side].get(from, ret);
+        return ret;
+    }
+
+    /**
+     * Builds the tuple with blank lines removed, as {@link JSONUtils#loadTuplesFromJson} does.
+     * Equal lines of different tuples are the same String instance.
+     */
+    public MergeTuple get(int tuple){
+        MergeTuple t = new MergeTuple();
+        t.path = path(tuple);
+        t.commitId = commit(tuple);
+        t.a = lines(tuple, A);
+        t.b = lines(tuple, B);
+        t.o = lines(tuple, O);
+        t.r = lines(tuple, R);
+        return t;
+    }
+
+    private List<String> lines(int tuple, int side){
+        int[] lineIds = lineIds(tuple, side);
+        List<String> ret = new ArrayList<>(lineIds.length);
+        for(int id : lineIds){
+            if(!isBlank(id)) ret.add(line(id));
+        }
+        return ret;
+    }
+
+    public List<MergeTuple> toTuples(){
+        List<MergeTuple> tuples = new ArrayList<>(size);
+        for(int i = 0; i < size; i++){
+            tuples.add(get(i));
+        }
+        return tuples;
+    }
+}
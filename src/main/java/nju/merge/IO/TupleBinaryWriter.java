@@ -0,0 +1,139 @@
+package nju.merge.IO;
+
+import nju.merge.entity.MergeTuple;
+import nju.merge.metrics.Metrics;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes {@code <project>.tuples}, a columnar file in which every distinct line (and path and commit) is stored once
+ * in a dictionary and tuples refer to lines by id. Only the dictionary and the int columns are kept
+ * until {@link #close()}, when the file is written. See {@link TupleBinaryFile} for the layout.
+ * The file is read through a single mapping, so it may not exceed 2GB; {@link #close()} fails before writing a larger one.
+ */
+public class TupleBinaryWriter implements TupleWriter {
+
+    static final int MAGIC = 0x4D545550;    // "MTUP"
+    static final int VERSION = 2;
+
+    private static final Metrics.Timer SERIALIZE_TIME = Metrics.timer("stage_seconds", "stage", "serialize");
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter("bytes_written_total", "target", "tuples");
+
+    private final File file;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> lines = new ArrayList<>();
+    private final IntColumn paths = new IntColumn();
+    private final IntColumn commits = new IntColumn();
+    private final IntColumn[] starts = new IntColumn[4];
+    private final IntColumn[] columns = new IntColumn[4];
+
+    public TupleBinaryWriter(String output, String project) throws IOException {
+        File dir = new File(output);
+        if(!dir.exists()) {
+            FileUtils.forceMkdir(dir);
+        }
+        file = new File(PathUtil.getFileWithPathSegment(output, project + ".tuples"));
+        for(int i = 0; i < 4; i++){
+            starts[i] = new IntColumn();
+            starts[i].add(0);
+            columns[i] = new IntColumn();
+        }
+    }
+
+    private int intern(String line){
+        Integer id = ids.get(line);
+        if(id == null){
+            id = lines.size();
+            ids.put(line, id);
+            lines.add(line);
+        }
+        return id;
+    }
+
+    @Override
+    public void write(MergeTuple tuple){
+        paths.add(tuple.path == null ? -1 : intern(tuple.path));
+        commits.add(tuple.commitId == null ? -1 : intern(tuple.commitId));
+        List<List<String>> sides = List.of(tuple.a, tuple.b, tuple.o, tuple.r);
+        for(int i = 0; i < 4; i++){
+            for(String line : sides.get(i)){
+                columns[i].add(intern(line));
+            }
+            starts[i].add(columns[i].size);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        long start = System.nanoTime();
+        byte[][] encoded = new byte[lines.size()][];
+        long byteLength = 0;
+        for(int i = 0; i < encoded.length; i++){
+            encoded[i] = lines.get(i).getBytes(StandardCharsets.UTF_8);
+            byteLength += encoded[i].length;
+        }
+        long ints = 5 + (encoded.length + 1L) + 2L * paths.size;
+        for(int i = 0; i < 4; i++){
+            ints += 1 + starts[i].size + columns[i].size;
+        }
+        long length = 4 * ints + (byteLength + 3) / 4 * 4;
+        if(length > Integer.MAX_VALUE) {
+            throw new IOException("tuple file would be " + length + " bytes, more than the 2GB a .tuples file can hold: " + file);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(encoded.length);
+            out.writeInt((int) byteLength);
+            int offset = 0;
+            out.writeInt(0);
+            for(byte[] e : encoded){
+                offset += e.length;
+                out.writeInt(offset);
+            }
+            for(byte[] e : encoded){
+                out.write(e);
+            }
+            // keep the int sections 4-byte aligned
+            for(int pad = (4 - offset % 4) % 4; pad > 0; pad--){
+                out.write(0);
+            }
+
+            out.writeInt(paths.size);
+            paths.writeTo(out);
+            commits.writeTo(out);
+            for(int i = 0; i < 4; i++){
+                out.writeInt(columns[i].size);
+                starts[i].writeTo(out);
+                columns[i].writeTo(out);
+            }
+        }
+        SERIALIZE_TIME.observe(start);
+        BYTES_WRITTEN.add(file.length());
+    }
+
+    private static class IntColumn {
+        int[] values = new int[1024];
+        int size;
+
+        void add(int v){
+            if(size == values.length){
+                values = java.util.Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = v;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            for(int i = 0; i < size; i++){
+                out.writeInt(values[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package nju.merge.IO;
+
+import com.alibaba.fastjson.JSONWriter;
+import nju.merge.entity.MergeTuple;
+import nju.merge.metrics.Metrics;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the {@code {"Project":..., "mergeTuples":[...]}} document one tuple at a time,
+ * so memory does not grow with the number of tuples.
+ * With compression on, the output is {@code <project>.json.gz}; {@link JSONUtils#loadTuplesFromJson} reads both.
+ */
+public class TupleJsonWriter implements TupleWriter {
+
+    private static final Metrics.Timer SERIALIZE_TIME = Metrics.timer("stage_seconds", "stage", "serialize");
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter("bytes_written_total", "target", "tuples");
+
+    private final File file;
+    private final Writer out;
+    private final JSONWriter writer;
+
+    public TupleJsonWriter(String output, String project) throws IOException {
+        this(output, project, false);
+    }
+
+    public TupleJsonWriter(String output, String project, boolean gzip) throws IOException {
+        File dir = new File(output);
+        if(!dir.exists()) {
+            FileUtils.forceMkdir(dir);
+        }
+        String name = project + (gzip ? ".json.gz" : ".json");
+        file = new File(PathUtil.getFileWithPathSegment(output, name));
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        if(gzip) {
+            os = new GZIPOutputStream(os, 1 << 16);
+        }
+        out = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+        writer = new JSONWriter(out);
+        writer.startObject();
+        writer.writeKey("Project");
+        writer.writeValue(project);
+        writer.writeKey("mergeTuples");
+        writer.startArray();
+    }
+
+    @Override
+    public void write(MergeTuple tuple){
+        long start = System.nanoTime();
+        writer.startObject();
+        if(tuple.path != null) {
+            writer.writeKey("path");
+            writer.writeValue(tuple.path);
+        }
+        if(tuple.commitId != null) {
+            writer.writeKey("commitId");
+            writer.writeValue(tuple.commitId);
+        }
+        writer.writeKey("a");
+        writer.writeValue(tuple.a);
+        writer.writeKey("b");
+        writer.writeValue(tuple.b);
+        writer.writeKey("o");
+        writer.writeValue(tuple.o);
+        writer.writeKey("r");
+        writer.writeValue(tuple.r);
+        writer.endObject();
+        SERIALIZE_TIME.observe(start);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.endArray();
+        writer.endObject();
+        // JSONWriter only flushes its buffer into out, it does not close it
+        writer.close();
+        out.close();
+        BYTES_WRITTEN.add(file.length());
+    }
+}
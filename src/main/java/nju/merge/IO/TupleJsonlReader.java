@@ -0,0 +1,108 @@
+package nju.merge.IO;
+
+import com.alibaba.fastjson.JSON;
+import nju.merge.entity.MergeTuple;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import static nju.merge.IO.JSONUtils.removeBlankLine;
+
+/**
+ * Reads the JSONL tuple files written by {@link TupleJsonlWriter}. The file is cut into byte ranges that are
+ * parsed in parallel; a line belongs to the range its first byte falls in, so the ranges need not be line-aligned.
+ */
+public class TupleJsonlReader {
+
+    private static final long MIN_SPLIT = 1L << 20;
+
+    public static List<MergeTuple> load(String path) throws IOException {
+        return load(path, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return all tuples in file order
+     */
+    public static List<MergeTuple> load(String path, int threads) throws IOException {
+        long size = new File(path).length();
+        int n = (int) Math.max(1, Math.min(threads, size / MIN_SPLIT));
+        long step = (size + n - 1) / n;
+        try {
+            List<List<MergeTuple>> parts = IntStream.range(0, n).parallel().mapToObj(i -> {
+                List<MergeTuple> part = new ArrayList<>();
+                try {
+                    readSplit(path, i * step, Math.min(size, (i + 1) * step), part::add);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return part;
+            }).toList();
+            List<MergeTuple> tuples = new ArrayList<>();
+            parts.forEach(tuples::addAll);
+            return tuples;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Parses every line that starts within [start, end).
+     */
+    public static void readSplit(String path, long start, long end, Consumer<MergeTuple> sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path))) {
+            // back up one byte: if it is the newline ending the previous line, the line at start is ours
+            long pos = start == 0 ? 0 : start - 1;
+            channel.position(pos);
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            boolean skip = start != 0;
+            long lineStart = pos;
+            while(lineStart < end) {
+                buf.clear();
+                int n = channel.read(buf);
+                if(n < 0) break;
+                byte[] bytes = buf.array();
+                int from = 0;
+                for(int i = 0; i < n; i++) {
+                    if(bytes[i] != '\n') continue;
+                    line.write(bytes, from, i - from);
+                    if(!skip) emit(line, sink);
+                    skip = false;
+                    line.reset();
+                    pos += i - from + 1;
+                    from = i + 1;
+                    lineStart = pos;
+                    if(lineStart >= end) break;
+                }
+                if(lineStart >= end) break;
+                line.write(bytes, from, n - from);
+                pos += n - from;
+            }
+            // a last line without a newline
+            if(!skip && lineStart < end) emit(line, sink);
+        }
+    }
+
+    private static void emit(ByteArrayOutputStream line, Consumer<MergeTuple> sink){
+        String text = line.toString(StandardCharsets.UTF_8).trim();
+        if(!text.isEmpty()) {
+            sink.accept(parse(text));
+        }
+    }
+
+    public static MergeTuple parse(String line){
+        MergeTuple tuple = JSON.parseObject(line, MergeTuple.class);
+        tuple.a = removeBlankLine(tuple.a);
+        tuple.b = removeBlankLine(tuple.b);
+        tuple.o = removeBlankLine(tuple.o);
+        tuple.r = removeBlankLine(tuple.r);
+        return tuple;
+    }
+}
@@ -0,0 +1,104 @@
+package nju.merge.IO;
+
+import com.alibaba.fastjson.JSON;
+import nju.merge.entity.MergeTuple;
+import nju.merge.metrics.Metrics;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes {@code <project>.jsonl}, one tuple object per line. Unlike the single JSON document the file has
+ * no header or trailer, so an incremental run can append to it and {@link TupleJsonlReader} can split it by byte range.
+ */
+public class TupleJsonlWriter implements TupleWriter {
+
+    private static final Metrics.Timer SERIALIZE_TIME = Metrics.timer("stage_seconds", "stage", "serialize");
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter("bytes_written_total", "target", "tuples");
+
+    private final File file;
+    private final long initialLength;
+    private final Writer out;
+
+    public TupleJsonlWriter(String output, String project) throws IOException {
+        this(output, project, false);
+    }
+
+    /**
+     * @param append keep the tuples already in the file and add new ones after them
+     */
+    public TupleJsonlWriter(String output, String project, boolean append) throws IOException {
+        File dir = new File(output);
+        if(!dir.exists()) {
+            FileUtils.forceMkdir(dir);
+        }
+        file = new File(PathUtil.getFileWithPathSegment(output, project + ".jsonl"));
+        if(append && file.length() > 0) {
+            dropPartialLine(file);
+        }
+        initialLength = append ? file.length() : 0;
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * A run killed in the middle of a line leaves part of a record after the last newline, which would not parse;
+     * cut the file back to the end of its last complete line.
+     */
+    static void dropPartialLine(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long end = raf.length();
+            byte[] buf = new byte[1 << 16];
+            while(end > 0) {
+                int n = (int) Math.min(buf.length, end);
+                raf.seek(end - n);
+                raf.readFully(buf, 0, n);
+                int i = n - 1;
+                while(i >= 0 && buf[i] != '\n') i--;
+                if(i >= 0) {
+                    end = end - n + i + 1;
+                    break;
+                }
+                end -= n;
+            }
+            raf.setLength(end);
+        }
+    }
+
+    @Override
+    public void write(MergeTuple tuple){
+        long start = System.nanoTime();
+        Map<String, Object> line = new LinkedHashMap<>();
+        if(tuple.path != null) {
+            line.put("path", tuple.path);
+        }
+        if(tuple.commitId != null) {
+            line.put("commitId", tuple.commitId);
+        }
+        line.put("a", tuple.a);
+        line.put("b", tuple.b);
+        line.put("o", tuple.o);
+        line.put("r", tuple.r);
+        try {
+            // string values are escaped, so a tuple never spans more than one line
+            out.write(JSON.toJSONString(line));
+            out.write('\n');
+            SERIALIZE_TIME.observe(start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+        BYTES_WRITTEN.add(file.length() - initialLength);
+    }
+}
@@ -0,0 +1,22 @@
+package nju.merge.IO;
+
+import nju.merge.entity.MergeTuple;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Sink for merge tuples that are written out one at a time as they are produced.
+ */
+public interface TupleWriter extends Closeable, Flushable {
+
+    void write(MergeTuple tuple);
+
+    /**
+     * Pushes the buffered tuples into the file, for formats a later run appends to; does nothing otherwise.
+     */
+    @Override
+    default void flush() throws IOException {
+    }
+}
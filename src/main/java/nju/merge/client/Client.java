@@ -1,15 +1,30 @@
 package nju.merge.client;
 
-import nju.merge.IO.JSONUtils;
+import nju.merge.IO.MalformedHunkWriter;
 import nju.merge.IO.PathUtil;
+import nju.merge.IO.TupleJsonWriter;
+import nju.merge.IO.TupleJsonlWriter;
+import nju.merge.IO.TupleWriter;
 import nju.merge.core.DatasetCollector;
 import nju.merge.core.DatasetFilter;
 import nju.merge.core.GitService;
+import nju.merge.core.LanguageFilter;
+import nju.merge.core.RepositoryAccess;
+import nju.merge.core.TupleDeduplicator;
+import nju.merge.entity.MalformedHunk;
+import nju.merge.entity.MergeTuple;
+import nju.merge.metrics.MetricsReporter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public class Client {
 
@@ -20,47 +35,217 @@ public class Client {
 //        repos.put("spring-boot","");
     }
 
-    public static void addReposFromText(String txtPath, Map<String, String> repos){
-
+    /**
+     * Reads a manifest with one {@code <name> <url or local path>} per line; blank lines and lines starting with # are skipped.
+     */
+    public static void addReposFromText(String txtPath, Map<String, String> repos) throws IOException {
+        for(String line : Files.readAllLines(Paths.get(PathUtil.getSystemCompatiblePath(txtPath)))){
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split("\\s+", 2);
+            if(parts.length != 2){
+                logger.warn("skipping malformed manifest line: {}", line);
+                continue;
+            }
+            repos.put(parts[0], parts[1].trim());
+        }
     }
 
 
-    public static void main(String[] args) {
+    /**
+     * Usage: {@code Client [manifest [parallel repos [replay threads per repo]]]}
+     */
+    public static void main(String[] args) throws Exception {
         String output = "./output";
         String repoPath = "../repos";
-        Map<String, String> repos = new HashMap<>();
-        addSimpleRepo(repos);
-        repos.forEach((projectName, url) -> {
-            String path = PathUtil.getFileWithPathSegment(repoPath, projectName);
+        boolean streaming = true;           // merge replay -> tuples -> analysis in one pass
+        boolean keepConflictFiles = false;  // also write output/conflictFiles in streaming mode, for debugging
+        boolean gzip = false;               // write output/mergeTuples/<project>.json.gz instead of <project>.json
+        boolean jsonl = false;              // write output/mergeTuples/<project>.jsonl in streaming mode, appending on reruns
+        boolean refresh = false;            // fetch new refs into the mirrors under repoPath before mining
+        LanguageFilter languages = LanguageFilter.of("java");   // e.g. "java,kotlin,cpp" or extensions like ".py,.go"
+        boolean dedupTuples = false;        // keep one tuple of each group of exact or near duplicates (cherry-picks, back-merges)
+        Map<String, String> repos = new LinkedHashMap<>();
+        if(args.length > 0) {
+            addReposFromText(args[0], repos);
+        } else {
+            addSimpleRepo(repos);
+        }
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(1, Runtime.getRuntime().availableProcessors() / parallelism);
+
+        // pack access settings, tunable per run with -Djgit.packedGitLimit=... etc.
+        RepositoryAccess.installWindowCache(RepositoryAccess.windowCacheConfig(System.getProperties()));
+        RepoScheduler scheduler = new RepoScheduler(parallelism);
+        // output/metrics/metrics.json and metrics.prom are refreshed every 10s while mining
+        MetricsReporter metrics = new MetricsReporter(PathUtil.getFileWithPathSegment(output, "metrics"), 10);
+        List<RepoScheduler.RepoReport> reports = scheduler.run(repos, (projectName, source, report) -> {
+            // a manifest entry may name an existing local repository instead of a remote URL;
+            // remote URLs, file:// URLs and bundle files are cloned as bare repositories under repoPath, branches and tags only
+            boolean local = new File(source).isDirectory();
+            String path = local ? source : PathUtil.getFileWithPathSegment(repoPath, projectName);
+            String url = local ? null : source;
             String outputConflictFiles = PathUtil.getFileWithPathSegment(output, "conflictFiles");  // forceMkdir
             String outputJsonPath = PathUtil.getFileWithPathSegment(output, "mergeTuples");
+            GitService gitService = new GitService();
+            gitService.setThreads(threads);
+            // duplicates are found within one repository and one run
+            TupleDeduplicator dedup = dedupTuples ? new TupleDeduplicator(Runtime.getRuntime().maxMemory() / 8 / parallelism) : null;
+            // hunks whose markers do not parse, e.g. files holding marker-like lines, go to output/malformedHunks/<project>.jsonl,
+            // appended to like the tuples when only merges missing from the checkpoint are replayed
+            MalformedHunkWriter malformed = new MalformedHunkWriter(PathUtil.getFileWithPathSegment(output, "malformedHunks"), projectName, streaming && jsonl);
+            CollectOptions options = new CollectOptions();
+            options.threads = threads;
+            options.gzip = gzip;
+            options.dedup = dedup;
+            options.malformed = malformed;
+            gitService.setRefresh(refresh);
+            gitService.setLanguageFilter(languages);
             try {
-                logger.info("--------------------------collect conflict files----------------------------------");
-                collectGitConflicts(path, projectName, url, outputConflictFiles);
-                logger.info("--------------------------collect merge tuples----------------------------------");
-                collectMergeScenario(outputJsonPath, projectName, outputConflictFiles);
-                logger.info("--------------------------merge tuples analysis----------------------------------");
-                mergeTuplesAnalysis(PathUtil.getFileWithPathSegment(outputJsonPath , projectName + ".json"));
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+                if(streaming) {
+                    logger.info("--------------------------collect and analyse merge tuples of {}----------------------------------", projectName);
+                    if(jsonl) {
+                        // only merges missing from the checkpoint are replayed, and their tuples appended
+                        gitService.setCheckpoint(PathUtil.getFileWithPathSegment(output, "checkpoints", projectName + ".jsonl.txt"));
+                        try (TupleWriter writer = new TupleJsonlWriter(outputJsonPath, projectName, true)) {
+                            collectStreaming(gitService, path, projectName, url, keepConflictFiles ? outputConflictFiles : null, writer, options);
+                        }
+                        // the file also holds the tuples of earlier runs, analyse all of them
+                        mergeTuplesAnalysis(PathUtil.getFileWithPathSegment(outputJsonPath, projectName + ".jsonl"), projectName);
+                        return;
+                    }
+                    collectStreaming(gitService, path, projectName, url, keepConflictFiles ? outputConflictFiles : null, outputJsonPath, options);
+                    return;
+                }
+                logger.info("--------------------------collect conflict files of {}----------------------------------", projectName);
+                gitService.setCheckpoint(PathUtil.getFileWithPathSegment(output, "checkpoints", projectName + ".txt"));
+                gitService.collectAllConflicts(path, projectName, url, outputConflictFiles);
+                logger.info("--------------------------collect merge tuples of {}----------------------------------", projectName);
+                collectMergeScenario(outputJsonPath, projectName, PathUtil.getFileWithPathSegment(outputConflictFiles, projectName), options);
+                logger.info("--------------------------merge tuples analysis of {}----------------------------------", projectName);
+                mergeTuplesAnalysis(PathUtil.getFileWithPathSegment(outputJsonPath , projectName + (gzip ? ".json.gz" : ".json")), projectName);
+            } finally {
+                if(dedup != null) dedup.report();
+                malformed.close();
+                if(malformed.getCount() > 0) {
+                    logger.warn("{} malformed hunks of {} skipped, see {}", malformed.getCount(), projectName, malformed.getFile());
+                }
+                report.merges = gitService.getMergesReplayed();
+                report.conflicts = gitService.getConflictingMerges();
             }
         });
+        metrics.close();
+        logger.info("--------------------------summary----------------------------------");
+        reports.forEach(r -> logger.info("{}", r));
     }
 
 
     public static void collectGitConflicts(String projectPath, String projectName, String url, String output) throws Exception {
+        collectGitConflicts(projectPath, projectName, url, output, null);
+    }
+
+    /**
+     * @param checkpoint index of merge commits already collected into output, so reruns only replay new ones
+     */
+    public static void collectGitConflicts(String projectPath, String projectName, String url, String output, String checkpoint) throws Exception {
         GitService gitService = new GitService();
+        gitService.setCheckpoint(checkpoint);
         gitService.collectAllConflicts(projectPath, projectName, url, output);
     }
 
+    /**
+     * Optional parts of tuple collection; by default tuples go out as extracted, uncompressed and unfiltered.
+     */
+    public static class CollectOptions {
+        public int threads = Runtime.getRuntime().availableProcessors();    // extraction threads of collectMergeScenario
+        public boolean gzip;                    // write <project>.json.gz instead of plain JSON
+        public DatasetFilter filter;            // classifies every written tuple; collectStreaming to a file makes and reports one if null
+        public TupleDeduplicator dedup;         // drops tuples duplicating an earlier one before they are written; the caller reports it
+        public Consumer<MalformedHunk> malformed;   // receives the hunks that could not be parsed, from several threads
+
+        public CollectOptions(){
+        }
+
+        private CollectOptions(CollectOptions other){
+            threads = other.threads;
+            gzip = other.gzip;
+            filter = other.filter;
+            dedup = other.dedup;
+            malformed = other.malformed;
+        }
+    }
+
     public static void collectMergeScenario(String outputFile, String projectName, String conflictFilesPath) throws Exception {
+        collectMergeScenario(outputFile, projectName, conflictFilesPath, new CollectOptions());
+    }
+
+    public static void collectMergeScenario(String outputFile, String projectName, String conflictFilesPath, CollectOptions options) throws Exception {
+        DatasetCollector dc = new DatasetCollector();
+        dc.setThreads(options.threads);
+        if(options.malformed != null) dc.setMalformedHunkSink(options.malformed);
+        try (TupleWriter writer = new TupleJsonWriter(outputFile, projectName, options.gzip)) {
+            dc.extractFromProject(conflictFilesPath, tuple -> {
+                if(options.dedup != null && !options.dedup.add(tuple)) return;
+                writer.write(tuple);
+                if(options.filter != null) options.filter.accept(tuple);
+            });
+        }
+    }
+
+    /**
+     * Single pass: every conflicting file goes from merge replay through tuple extraction and
+     * classification without being read back from disk.
+     * @param conflictFilesPath where to also write the conflictFiles tree, or null to skip it
+     */
+    public static void collectStreaming(String projectPath, String projectName, String url, String conflictFilesPath, String outputFile) throws Exception {
+        collectStreaming(new GitService(), projectPath, projectName, url, conflictFilesPath, outputFile, new CollectOptions());
+    }
+
+    public static void collectStreaming(GitService gitService, String projectPath, String projectName, String url, String conflictFilesPath, String outputFile, CollectOptions options) throws Exception {
+        if(options.filter == null) {
+            options = new CollectOptions(options);
+            options.filter = new DatasetFilter();
+            options.filter.setProject(projectName);
+            collectStreaming(gitService, projectPath, projectName, url, conflictFilesPath, outputFile, options);
+            options.filter.report();
+            return;
+        }
+        try (TupleWriter writer = new TupleJsonWriter(outputFile, projectName, options.gzip)) {
+            collectStreaming(gitService, projectPath, projectName, url, conflictFilesPath, writer, options);
+        }
+    }
+
+    /**
+     * @param writer receives every tuple as soon as it is extracted, and is flushed before a merge commit is checkpointed;
+     *               the caller closes it
+     */
+    public static void collectStreaming(GitService gitService, String projectPath, String projectName, String url, String conflictFilesPath, TupleWriter writer, CollectOptions options) throws Exception {
+        gitService.setSinkFlush(writer);
         DatasetCollector dc = new DatasetCollector();
-        dc.extractFromProject(conflictFilesPath);
-        JSONUtils.writeTuples2Json(dc.allTuple, projectName, outputFile);
+        if(options.malformed != null) dc.setMalformedHunkSink(options.malformed);
+        gitService.collectAllConflicts(projectPath, projectName, url, conflictFilesPath, scenario -> {
+            List<MergeTuple> tuples;
+            try {
+                tuples = dc.extractMergeTuples(scenario);
+            } catch (Exception e) {
+                logger.error("failed to extract tuples from {}:{}", scenario.commitID, scenario.fileName, e);
+                return;
+            }
+            for(MergeTuple tuple : tuples){
+                if(options.dedup != null && !options.dedup.add(tuple)) continue;
+                writer.write(tuple);
+                if(options.filter != null) options.filter.accept(tuple);
+            }
+        });
     }
 
     public static void mergeTuplesAnalysis(String jsonPath) throws Exception {
+        mergeTuplesAnalysis(jsonPath, null);
+    }
+
+    public static void mergeTuplesAnalysis(String jsonPath, String projectName) throws Exception {
         DatasetFilter df = new DatasetFilter(jsonPath);
+        df.setProject(projectName);
         df.analysis();
     }
 }
@@ -0,0 +1,137 @@
+package nju.merge.client;
+
+import com.alibaba.fastjson.JSON;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import nju.merge.core.TupleIndex;
+import nju.merge.core.TupleIndexWriter;
+import nju.merge.entity.MergeTuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Builds and queries a {@link TupleIndex} over collected tuples.
+ * <pre>
+ * IndexClient build &lt;index dir&gt; &lt;tuple file or directory&gt;...   e.g. build ./index ./output/mergeTuples
+ * IndexClient query &lt;index dir&gt; [key=value]...                  e.g. query ./index project=junit4 category=concat maxLines=10
+ * IndexClient serve &lt;index dir&gt; [port]                           GET /query?project=junit4&amp;category=concat, GET /stats
+ * </pre>
+ * Query keys are those of {@link TupleIndex.Query#set}. The server only listens on the loopback address.
+ */
+public class IndexClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexClient.class);
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 2) {
+            System.err.println("usage: IndexClient build <index dir> <tuple file or directory>...\n"
+                    + "       IndexClient query <index dir> [key=value]...\n"
+                    + "       IndexClient serve <index dir> [port]");
+            System.exit(2);
+        }
+        String dir = args[1];
+        switch (args[0]) {
+            case "build" -> {
+                try (TupleIndexWriter writer = new TupleIndexWriter(dir)) {
+                    for(int i = 2; i < args.length; i++){
+                        writer.addAll(args[i]);
+                    }
+                }
+            }
+            case "query" -> {
+                TupleIndex index = new TupleIndex(dir);
+                TupleIndex.Query q = new TupleIndex.Query();
+                for(int i = 2; i < args.length; i++){
+                    String[] kv = args[i].split("=", 2);
+                    q.set(kv[0], kv.length > 1 ? kv[1] : "");
+                }
+                System.out.println(JSON.toJSONString(toJson(index, index.query(q))));
+            }
+            case "serve" -> serve(new TupleIndex(dir), args.length > 2 ? Integer.parseInt(args[2]) : 8080);
+            default -> throw new IllegalArgumentException("unknown command " + args[0]);
+        }
+    }
+
+    public static void serve(TupleIndex index, int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/query", exchange -> {
+            TupleIndex.Query q = new TupleIndex.Query();
+            Map<String, Object> body;
+            try {
+                String query = exchange.getRequestURI().getRawQuery();
+                if(query != null) {
+                    for(String pair : query.split("&")){
+                        if(pair.isEmpty()) continue;
+                        String[] kv = pair.split("=", 2);
+                        q.set(URLDecoder.decode(kv[0], StandardCharsets.UTF_8),
+                                kv.length > 1 ? URLDecoder.decode(kv[1], StandardCharsets.UTF_8) : "");
+                    }
+                }
+                body = toJson(index, index.query(q));
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, Map.of("error", String.valueOf(e.getMessage())));
+                return;
+            } catch (RuntimeException e) {
+                logger.error("query {} failed", exchange.getRequestURI(), e);
+                respond(exchange, 500, Map.of("error", String.valueOf(e)));
+                return;
+            }
+            respond(exchange, 200, body);
+        });
+        server.createContext("/stats", exchange -> {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("tuples", index.size());
+            stats.put("projects", index.getProjects());
+            stats.put("categories", index.getCategoryCounts());
+            respond(exchange, 200, stats);
+        });
+        server.setExecutor(Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors())));
+        server.start();
+        logger.info("serving {} tuples on http://{}:{}/query", index.size(), server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    private static void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = JSON.toJSONString(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, Object> toJson(TupleIndex index, TupleIndex.Result result){
+        List<Map<String, Object>> tuples = new ArrayList<>(result.ids().length);
+        for(int id : result.ids()){
+            MergeTuple tuple = index.get(id);
+            Map<String, Object> t = new LinkedHashMap<>();
+            t.put("id", id);
+            t.put("project", index.project(id));
+            t.put("commitId", tuple.commitId);
+            t.put("path", tuple.path);
+            t.put("categories", index.categories(id));
+            t.put("lines", index.lines(id));
+            t.put("a", tuple.a);
+            t.put("b", tuple.b);
+            t.put("o", tuple.o);
+            t.put("r", tuple.r);
+            tuples.add(t);
+        }
+        Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("total", result.total());
+        ret.put("tookMs", result.tookMs());
+        ret.put("tuples", tuples);
+        return ret;
+    }
+}
@@ -0,0 +1,89 @@
+package nju.merge.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mines many repositories at once. A repository that fails, with an exception or an error, is reported and the others keep running.
+ * Interrupting the caller interrupts the running repositories and skips the queued ones.
+ */
+public class RepoScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(RepoScheduler.class);
+
+    public interface RepoTask {
+        void run(String projectName, String source, RepoReport report) throws Exception;
+    }
+
+    public static class RepoReport {
+        public final String projectName;
+        public long millis;
+        public int merges;
+        public int conflicts;
+        public String error;
+
+        public RepoReport(String projectName){
+            this.projectName = projectName;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s in %.1fs, %d merges replayed, %d conflicting",
+                    projectName, error == null ? "done" : "FAILED (" + error + ")", millis / 1000.0, merges, conflicts);
+        }
+    }
+
+    private final int parallelism;
+
+    public RepoScheduler(int parallelism){
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Runs the task for every (name, source) pair with at most {@code parallelism} repositories at a time.
+     * @return one report per repository, in the order of the map
+     */
+    public List<RepoReport> run(Map<String, String> repos, RepoTask task) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        AtomicInteger finished = new AtomicInteger();
+        List<RepoReport> reports = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        repos.forEach((projectName, source) -> {
+            RepoReport report = new RepoReport(projectName);
+            reports.add(report);
+            futures.add(pool.submit(() -> {
+                long start = System.currentTimeMillis();
+                try {
+                    task.run(projectName, source, report);
+                } catch (Throwable e) {
+                    // errors such as OutOfMemoryError fail this repository too, the others may still fit
+                    report.error = e.toString();
+                    logger.error("mining {} failed", projectName, e);
+                }
+                report.millis = System.currentTimeMillis() - start;
+                logger.info("[{}/{}] {}", finished.incrementAndGet(), repos.size(), report);
+            }));
+        });
+        pool.shutdown();
+        for(Future<?> f : futures){
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                logger.error("repository task did not complete", e.getCause());
+            } catch (InterruptedException e) {
+                pool.shutdownNow();
+                throw e;
+            }
+        }
+        return reports;
+    }
+}
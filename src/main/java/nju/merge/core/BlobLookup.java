@@ -0,0 +1,80 @@
+package nju.merge.core;
+
+import nju.merge.metrics.Metrics;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Resolves file paths to blob ids and blob ids to content, memoizing both.
+ * All paths of one commit are found with a single TreeWalk, and a blob shared by many scenarios
+ * (e.g. the same base on a long-lived branch) is inflated only once while it stays in the cache.
+ */
+public class BlobLookup {
+
+    private static final int MAX_TREES = 1024;
+    private static final long MAX_BLOB_BYTES = 64L << 20;
+    private static final Metrics.Counter BYTES_READ = Metrics.counter("bytes_read_total", "source", "git");
+
+    private final ObjectReader reader;
+    private final Map<ObjectId, Map<String, ObjectId>> trees = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ObjectId, Map<String, ObjectId>> eldest) {
+            return size() > MAX_TREES;
+        }
+    };
+    private final LinkedHashMap<ObjectId, byte[]> blobs = new LinkedHashMap<>(16, 0.75f, true);
+    private long blobBytes;
+
+    public BlobLookup(ObjectReader reader){
+        this.reader = reader;
+    }
+
+    /**
+     * @return blob id of every path that exists as a file in the commit; missing paths are absent
+     */
+    public Map<String, ObjectId> lookup(RevCommit commit, Collection<String> paths) throws IOException {
+        Map<String, ObjectId> known = trees.computeIfAbsent(commit.getTree().copy(), k -> new HashMap<>());
+        List<String> missing = paths.stream().filter(p -> !known.containsKey(p)).toList();
+        if(!missing.isEmpty()){
+            for(String p : missing) known.put(p, ObjectId.zeroId());
+            try (TreeWalk tw = new TreeWalk(reader)) {
+                tw.addTree(commit.getTree());
+                tw.setRecursive(true);
+                tw.setFilter(PathFilterGroup.createFromStrings(missing));
+                while(tw.next()){
+                    if(tw.getFileMode(0).getObjectType() == Constants.OBJ_BLOB){
+                        known.put(tw.getPathString(), tw.getObjectId(0));
+                    }
+                }
+            }
+        }
+        Map<String, ObjectId> ret = new HashMap<>();
+        for(String p : paths){
+            ObjectId id = known.get(p);
+            if(!ObjectId.zeroId().equals(id)) ret.put(p, id);
+        }
+        return ret;
+    }
+
+    public byte[] read(ObjectId blob) throws IOException {
+        byte[] bytes = blobs.get(blob);
+        if(bytes != null) return bytes;
+        bytes = reader.open(blob).getBytes();
+        BYTES_READ.add(bytes.length);
+        blobs.put(blob.copy(), bytes);
+        blobBytes += bytes.length;
+        Iterator<byte[]> it = blobs.values().iterator();
+        while(blobBytes > MAX_BLOB_BYTES && it.hasNext()){
+            blobBytes -= it.next().length;
+            it.remove();
+        }
+        return bytes;
+    }
+}
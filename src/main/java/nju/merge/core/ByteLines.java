@@ -0,0 +1,176 @@
+package nju.merge.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Lines of an encoded file, split on the raw bytes (heap or memory-mapped) the way {@link String#lines()} splits text.
+ * Marker characters and line equality are checked on the bytes; a line is only decoded when {@link #get} is called,
+ * strictly in the file's charset, and in the fallback charset if its bytes are not valid there.
+ * Only usable for charsets in which line breaks and ASCII characters are single bytes, see {@link #canSplit}.
+ */
+final class ByteLines implements SourceLines {
+
+    private static final byte[] ASCII = new byte[128];
+    static {
+        for(int i = 0; i < ASCII.length; i++) ASCII[i] = (byte) i;
+    }
+
+    private final ByteBuffer bytes;
+    private final int[] starts;
+    private final int[] ends;
+    private final int size;
+    private final CharsetDecoder decoder;
+    private final Charset fallback;
+
+    private ByteLines(ByteBuffer bytes, int[] starts, int[] ends, int size, Charset charset, Charset fallback){
+        this.bytes = bytes;
+        this.starts = starts;
+        this.ends = ends;
+        this.size = size;
+        this.decoder = charset.newDecoder();
+        this.fallback = fallback;
+    }
+
+    /**
+     * Whether every ASCII byte decodes to itself on its own in {@code charset}, so that line breaks and markers
+     * can be found on the bytes: true for UTF-8, the ISO-8859 and windows code pages, GBK and the like;
+     * false for UTF-16/32 and the stateful ISO-2022 encodings.
+     */
+    static boolean canSplit(Charset charset){
+        if(charset.name().contains("2022")) return false;
+        return new String(ASCII, charset).equals(new String(ASCII, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Splits {@code bytes} from its position to its limit, on {@code \n}, {@code \r} and {@code \r\n}.
+     * The bytes are read eight at a time, and only a word holding a line break is looked at byte by byte.
+     * @param fallback decodes lines that are malformed in {@code charset}, should accept any byte sequence
+     */
+    static ByteLines split(ByteBuffer bytes, Charset charset, Charset fallback){
+        bytes.order(ByteOrder.BIG_ENDIAN);
+        int limit = bytes.limit();
+        int capacity = Math.max(16, (limit - bytes.position()) / 32);
+        int[] starts = new int[capacity];
+        int[] ends = new int[capacity];
+        int size = 0;
+        int start = bytes.position();
+        int i = start;
+        while(i < limit){
+            if(i + 8 <= limit){
+                long breaks = breaks(bytes.getLong(i));
+                if(breaks == 0){
+                    i += 8;
+                    continue;
+                }
+                // the first byte in memory is the most significant one
+                i += Long.numberOfLeadingZeros(breaks) >>> 3;
+            }
+            byte b = bytes.get(i);
+            if(b == '\n' || b == '\r'){
+                if(size == starts.length){
+                    starts = Arrays.copyOf(starts, size * 2);
+                    ends = Arrays.copyOf(ends, size * 2);
+                }
+                starts[size] = start;
+                ends[size++] = i;
+                if(b == '\r' && i + 1 < limit && bytes.get(i + 1) == '\n') i++;
+                start = i + 1;
+            }
+            i++;
+        }
+        if(start < limit){
+            if(size == starts.length){
+                starts = Arrays.copyOf(starts, size + 1);
+                ends = Arrays.copyOf(ends, size + 1);
+            }
+            starts[size] = start;
+            ends[size++] = limit;
+        }
+        return new ByteLines(bytes, starts, ends, size, charset, fallback);
+    }
+
+    /**
+     * @return 0x80 in each byte of {@code word} that is {@code \n} or {@code \r}, 0 elsewhere
+     */
+    private static long breaks(long word){
+        return zeros(word ^ 0x0A0A0A0A0A0A0A0AL) | zeros(word ^ 0x0D0D0D0D0D0D0D0DL);
+    }
+
+    private static long zeros(long v){
+        return ~(((v & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL) | v | 0x7F7F7F7F7F7F7F7FL);
+    }
+
+    @Override
+    public int size(){
+        return size;
+    }
+
+    @Override
+    public int length(int line){
+        return ends[Objects.checkIndex(line, size)] - starts[line];
+    }
+
+    /**
+     * @return the byte at {@code index}, a non-ASCII byte as a char above 0x7F
+     */
+    @Override
+    public char charAt(int line, int index){
+        return (char) (bytes.get(starts[line] + Objects.checkIndex(index, length(line))) & 0xFF);
+    }
+
+    @Override
+    public String get(int line){
+        Objects.checkIndex(line, size);
+        byte[] b = new byte[ends[line] - starts[line]];
+        bytes.get(starts[line], b);
+        boolean ascii = true;
+        for(byte x : b){
+            if(x < 0){
+                ascii = false;
+                break;
+            }
+        }
+        if(ascii) return new String(b, StandardCharsets.ISO_8859_1);
+        try {
+            CharBuffer chars = decoder.decode(ByteBuffer.wrap(b));
+            return chars.toString();
+        } catch (CharacterCodingException e) {
+            return new String(b, fallback);
+        }
+    }
+
+    @Override
+    public int hash(int line){
+        int i = starts[line], end = ends[line];
+        long h = end - i;
+        for(; i + 8 <= end; i += 8){
+            h = Long.rotateLeft((h ^ bytes.getLong(i)) * 0x9E3779B97F4A7C15L, 27);
+        }
+        for(; i < end; i++){
+            h = (h ^ bytes.get(i)) * 0x100000001B3L;
+        }
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public boolean equal(int line, SourceLines other, int otherLine){
+        ByteLines o = (ByteLines) other;
+        int from = starts[line], length = ends[line] - from;
+        int otherFrom = o.starts[otherLine];
+        if(o.ends[otherLine] - otherFrom != length) return false;
+        if(bytes.hasArray() && o.bytes.hasArray()){
+            from += bytes.arrayOffset();
+            otherFrom += o.bytes.arrayOffset();
+            return Arrays.equals(bytes.array(), from, from + length, o.bytes.array(), otherFrom, otherFrom + length);
+        }
+        return bytes.slice(from, length).equals(o.bytes.slice(otherFrom, length));
+    }
+}
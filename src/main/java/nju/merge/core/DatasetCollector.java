@@ -1,100 +1,216 @@
 package nju.merge.core;
 
+import nju.merge.entity.MalformedHunk;
+import nju.merge.entity.MergeScenario;
 import nju.merge.entity.MergeTuple;
+import nju.merge.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 public class DatasetCollector {
 
     private static final Logger logger = LoggerFactory.getLogger(DatasetCollector.class);
+    private static final Metrics.Counter TUPLES_EXTRACTED = Metrics.counter("merge_tuples_extracted_total");
+    private static final Metrics.Counter BYTES_READ = Metrics.counter("bytes_read_total", "source", "conflict_files");
+    private static final Metrics.Timer EXTRACT_TIME = Metrics.timer("stage_seconds", "stage", "extract");
+    private static final Metrics.Timer ALIGN_TIME = Metrics.timer("stage_seconds", "stage", "align");
+    private static final Metrics.Counter MERGE_HUNKS = Metrics.counter("conflict_hunks_total", "style", "merge");
+    private static final Metrics.Counter DIFF3_HUNKS = Metrics.counter("conflict_hunks_total", "style", "diff3");
+    private static final Map<MalformedHunk.Reason, Metrics.Counter> MALFORMED_HUNKS = new EnumMap<>(MalformedHunk.Reason.class);
+    static {
+        for(MalformedHunk.Reason reason : MalformedHunk.Reason.values()){
+            MALFORMED_HUNKS.put(reason, Metrics.counter("conflict_hunks_malformed_total", "reason", reason.name().toLowerCase(Locale.ROOT)));
+        }
+    }
+    private static final long MAP_THRESHOLD = 1 << 18;
     public List<MergeTuple> allTuple;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Charset charset = StandardCharsets.UTF_8;
+    private Charset fallbackCharset = StandardCharsets.ISO_8859_1;
+    private boolean bytewise = true;    // whether lines of the charset can be split on the bytes
+    private int markerSize = HunkParser.DEFAULT_MARKER_SIZE;
+    private Consumer<MalformedHunk> malformedHunks = hunk -> {};
 
     public DatasetCollector(){
         allTuple = new ArrayList<>();
     }
 
-    private List<String> file2StringList(File file) throws Exception {
-        List<String> lines = new ArrayList<>();
-        InputStreamReader reader = new InputStreamReader(new FileInputStream(file));
-        BufferedReader bReader = new BufferedReader(reader);
-        String tmp = null;
-        while((tmp = bReader.readLine()) != null){
-            lines.add(tmp);
+    /**
+     * Number of scenario directories read and parsed at once by {@link #extractFromProject(String, Consumer)}.
+     */
+    public void setThreads(int threads){
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Length of conflict markers, as set by git's {@code conflict-marker-size} attribute; 7 by default.
+     */
+    public void setMarkerSize(int markerSize){
+        this.markerSize = markerSize;
+    }
+
+    /**
+     * Receives every hunk that could not be parsed, from the extracting threads. Such hunks are dropped by default.
+     */
+    public void setMalformedHunkSink(Consumer<MalformedHunk> malformedHunks){
+        this.malformedHunks = malformedHunks;
+    }
+
+    /**
+     * Encoding of the source files, UTF-8 by default. A line whose bytes are not valid in it is decoded as ISO-8859-1
+     * (see {@link #setFallbackCharset}) instead of being replaced, and a UTF-16 byte order mark overrides it.
+     */
+    public void setCharset(Charset charset){
+        this.charset = charset;
+        this.bytewise = ByteLines.canSplit(charset);
+    }
+
+    /**
+     * Decodes the lines that are malformed in the charset, e.g. Latin-1 comments in a mostly UTF-8 file.
+     * It should accept every byte sequence, so that distinct lines stay distinct.
+     */
+    public void setFallbackCharset(Charset fallbackCharset){
+        this.fallbackCharset = fallbackCharset;
+    }
+
+    /**
+     * Small files are read; larger ones are memory-mapped, since a mapping costs more to set up than a short read
+     * and is only released when it is garbage collected.
+     */
+    private ByteBuffer read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            long size = channel.size();
+            BYTES_READ.add(size);
+            if(size >= MAP_THRESHOLD) {
+                // the mapping stays valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) size);
+            while(buf.hasRemaining() && channel.read(buf) >= 0);
+            return buf.flip();
+        }
+    }
+
+    /**
+     * Splits both files into lines on their bytes when the charset allows it, and decodes them whole otherwise.
+     * The choice is made for the pair, since the lines of a conflict file are only compared with resolved lines
+     * of the same kind: a UTF-16 byte order mark in either file has both decoded.
+     */
+    private SourceLines[] lines(ByteBuffer conflict, ByteBuffer resolve) {
+        boolean split = bytewise && !isUtf16(conflict) && !isUtf16(resolve);
+        return new SourceLines[]{ lines(conflict, split), lines(resolve, split) };
+    }
+
+    private SourceLines lines(ByteBuffer bytes, boolean split) {
+        Charset cs = isUtf16(bytes) ? StandardCharsets.UTF_16 : charset;
+        int limit = bytes.limit();
+        if(limit >= 3 && bytes.get(0) == (byte) 0xEF && bytes.get(1) == (byte) 0xBB && bytes.get(2) == (byte) 0xBF
+                && cs.equals(StandardCharsets.UTF_8)) {
+            bytes.position(3);
         }
-        return lines;
+        if(split) {
+            return ByteLines.split(bytes, cs, fallbackCharset);
+        }
+        return SourceLines.of(cs.decode(bytes).toString().lines().toList());
+    }
+
+    private static boolean isUtf16(ByteBuffer bytes) {
+        return bytes.limit() >= 2 && (bytes.get(0) == (byte) 0xFE && bytes.get(1) == (byte) 0xFF
+                || bytes.get(0) == (byte) 0xFF && bytes.get(1) == (byte) 0xFE);
     }
 
     public List<MergeTuple> extractMergeTuples(File conflict, File resolve, String commitId, String fileName) throws Exception {
-        logger.info("extract from {}", fileName);
-        List<String> conf = file2StringList(conflict);
-        List<String> res = file2StringList(resolve);
+        logger.debug("extract from {}", fileName);
+        SourceLines[] lines = lines(read(conflict), read(resolve));
+        return extractMergeTuples(lines[0], lines[1], commitId, fileName);
+    }
+
+    /**
+     * Extracts tuples straight from a scenario held in memory, without the conflictFiles tree.
+     */
+    public List<MergeTuple> extractMergeTuples(MergeScenario scenario) {
+        if(scenario.conflict == null || scenario.truth == null) return new ArrayList<>();
+        logger.debug("extract from {}:{}", scenario.commitID, scenario.fileName);
+        SourceLines[] lines = lines(ByteBuffer.wrap(scenario.conflict), ByteBuffer.wrap(scenario.truth));
+        return extractMergeTuples(lines[0], lines[1], scenario.commitID, scenario.fileName);
+    }
 
+    public List<MergeTuple> extractMergeTuples(List<String> conf, List<String> res, String commitId, String fileName) {
+        return extractMergeTuples(SourceLines.of(conf), SourceLines.of(res), commitId, fileName);
+    }
+
+    /**
+     * Hunks are found by {@link HunkParser}; a merge style hunk, which has no base section, gets an empty {@code o}.
+     * Malformed hunks are reported to the sink set by {@link #setMalformedHunkSink} and skipped.
+     */
+    private List<MergeTuple> extractMergeTuples(SourceLines conf, SourceLines res, String commitId, String fileName) {
+        long start = System.nanoTime();
         List<MergeTuple> tuples = new ArrayList<>();
-        for(int i = 0; i < conf.size(); i ++){
-            if(conf.get(i).startsWith("<<<<<<")){
-                MergeTuple tmp = new MergeTuple(commitId, fileName);
-                int j = i, k = i;
-                tmp.startLine = j;
-                while(!conf.get(++j).startsWith("||||||"));
-                tmp.a = getCodeSnippets(conf, k, j);
-                k = j;
-                while(!conf.get(++j).startsWith("======"));
-                tmp.o = getCodeSnippets(conf, k, j);
-                k = j;
-                while(!conf.get(++j).startsWith(">>>>>>"));
-                tmp.b = getCodeSnippets(conf, k, j);
-                tmp.endLine = j;
-                tuples.add(tmp);
-                i = j;
+        List<HunkParser.Hunk> hunks = HunkParser.parse(conf, markerSize,
+                (hunkStart, line, reason) -> malformed(conf, commitId, fileName, hunkStart, line, reason));
+        for(HunkParser.Hunk hunk : hunks){
+            MergeTuple tmp = new MergeTuple(commitId, fileName);
+            tmp.startLine = hunk.start();
+            tmp.endLine = hunk.end();
+            tmp.a = getCodeSnippets(conf, hunk.start(), hunk.hasBase() ? hunk.base() : hunk.separator());
+            if(hunk.hasBase()) {
+                tmp.o = getCodeSnippets(conf, hunk.base(), hunk.separator());
             }
+            tmp.b = getCodeSnippets(conf, hunk.separator(), hunk.end());
+            (hunk.hasBase() ? DIFF3_HUNKS : MERGE_HUNKS).inc();
+            tuples.add(tmp);
+        }
+        if(!tuples.isEmpty()) {
+            align(tuples, conf, res);
+            TUPLES_EXTRACTED.add(tuples.size());
         }
+        EXTRACT_TIME.observe(start);
+        return tuples;
+    }
+
+    private void malformed(SourceLines conf, String commitId, String fileName, int start, int line, MalformedHunk.Reason reason) {
+        MALFORMED_HUNKS.get(reason).inc();
+        logger.debug("malformed hunk at line {} of {}: {} at line {}", start, fileName, reason, line);
+        malformedHunks.accept(new MalformedHunk(commitId, fileName, start, line, reason, line < conf.size() ? conf.get(line) : null));
+    }
+
+    private void align(List<MergeTuple> tuples, SourceLines conf, SourceLines res) {
+        long start = System.nanoTime();
+        LineAligner aligner = new LineAligner(conf, res);
         tuples.forEach(tuple -> {
-            List<String> prefix = getCodeSnippets(conf, -1, tuple.startLine);
-            List<String> suffix = getCodeSnippets(conf, tuple.endLine, conf.size());
-            int startLineRes = alignLine(prefix, res, true);
-            int endLineRes = alignLine(suffix, res, false);
+            int startLineRes = aligner.alignBefore(tuple.startLine);
+            int endLineRes = aligner.alignAfter(tuple.endLine + 1);
             tuple.r = getCodeSnippets(res, startLineRes, endLineRes);
         });
-
-        return tuples;
+        ALIGN_TIME.observe(start);
     }
 
 
     public int alignLine(List<String> prefix, List<String> resolve, boolean reverse){
-        if(prefix.isEmpty()){
-            return reverse ? -1 : resolve.size();
-        }
-        List<String> snippet = new ArrayList<>();
-        List<String> source = new ArrayList<>();
-        if(reverse){
-            for(int i = prefix.size() - 1; i >= 0; i--) snippet.add(prefix.get(i));
-            for(int i = resolve.size() - 1; i >= 0; i--) source.add(resolve.get(i));
-        }else{
-            snippet.addAll(prefix);
-            source.addAll(resolve);
-        }
-        int ret = 0;
-        int maxAlign = -1;
-        for(int i = 0; i < source.size(); i++){
-            if(maxAlign >= 5) break;
-            if(source.get(i).equals(snippet.get(0))){
-                int j = i, k = 0;
-                while(++j < source.size() && ++k < snippet.size() && source.get(j).equals(snippet.get(k)));
-                if(k > maxAlign){
-                    maxAlign = k;
-                    ret = i;
-                }
-            }
-        }
-        if(reverse){
-            return source.size() - ret - 1;
-        }else return ret;
+        LineAligner aligner = new LineAligner(prefix, resolve);
+        return reverse ? aligner.alignBefore(prefix.size()) : aligner.alignAfter(0);
     }
 
     public List<String> getCodeSnippets(List<String> source, int start, int end){
@@ -102,44 +218,79 @@ public class DatasetCollector {
         return source.subList(start + 1, end);
     }
 
+    /**
+     * Decodes the lines strictly between {@code start} and {@code end}.
+     */
+    private static List<String> getCodeSnippets(SourceLines source, int start, int end){
+        List<String> ret = new ArrayList<>(Math.max(0, end - start - 1));
+        for(int i = start + 1; i < end; i++){
+            ret.add(source.get(i));
+        }
+        return ret;
+    }
+
 
     public void extractFromProject(String dir) throws IOException {
-        Path path = Paths.get(dir);
-        Files.walkFileTree(path, new FileVisitor<>() {
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                if (dir.toString().endsWith(".java")) {
-                    File[] fs = dir.toFile().listFiles();
-                    File conflict = null, resolve = null;
-                    for (var f : fs) {
-                        if (f.getName().equals("conflict.java")) conflict = f;
-                        else if (f.getName().equals("truth.java")) resolve = f;
-                    }
-                    if (conflict != null && resolve != null) {
-                        try {
-                            allTuple.addAll(extractMergeTuples(conflict, resolve, "", dir.toString()));
-                        } catch (Exception e) {
-                            e.printStackTrace();
+        extractFromProject(dir, allTuple::add);
+    }
+
+    /**
+     * Extracts the tuples of every scenario directory under {@code dir} on a pool of threads.
+     * A scenario directory is named after the conflicting file and holds conflict and truth files
+     * with its extension, see {@link MergeScenario#write2folder}, whatever language it is in.
+     * Tuples reach the sink on the calling thread in walk order, and at most {@code threads * 4}
+     * scenarios are held in memory at a time. A scenario that cannot be parsed is logged and skipped.
+     */
+    public void extractFromProject(String dir, Consumer<MergeTuple> sink) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Deque<Future<List<MergeTuple>>> window = new ArrayDeque<>();
+        try {
+            Files.walkFileTree(Paths.get(dir), new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (Files.isRegularFile(dir.resolve("conflict" + MergeScenario.extensionOf(dir.getFileName().toString())))) {
+                        window.add(pool.submit(() -> extractFromScenario(dir)));
+                        while (window.size() >= threads * 4) {
+                            emit(window.poll(), sink);
                         }
                     }
+                    return FileVisitResult.CONTINUE;
                 }
-                return FileVisitResult.CONTINUE;
-            }
 
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                return FileVisitResult.CONTINUE;
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            while (!window.isEmpty()) {
+                emit(window.poll(), sink);
             }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException exc) {
-                return FileVisitResult.CONTINUE;
-            }
+    private List<MergeTuple> extractFromScenario(Path dir) {
+        String ext = MergeScenario.extensionOf(dir.getFileName().toString());
+        Path conflict = dir.resolve("conflict" + ext);
+        Path resolve = dir.resolve("truth" + ext);
+        if (!Files.isRegularFile(conflict) || !Files.isRegularFile(resolve)) return List.of();
+        try {
+            return extractMergeTuples(conflict.toFile(), resolve.toFile(), "", dir.toString());
+        } catch (Exception e) {
+            logger.error("failed to extract tuples from {}", dir, e);
+            return List.of();
+        }
+    }
 
-            @Override
-            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
-                return FileVisitResult.CONTINUE;
-            }
-        });
+    private static void emit(Future<List<MergeTuple>> scenario, Consumer<MergeTuple> sink) throws IOException {
+        try {
+            scenario.get().forEach(sink);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while extracting tuples");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
     }
 }
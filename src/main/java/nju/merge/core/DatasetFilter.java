@@ -2,23 +2,129 @@ package nju.merge.core;
 
 import nju.merge.IO.JSONUtils;
 import nju.merge.IO.PathUtil;
+import nju.merge.IO.TupleBinaryFile;
+import nju.merge.IO.TupleJsonWriter;
+import nju.merge.entity.InternedTuple;
 import nju.merge.entity.MergeTuple;
+import nju.merge.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 import static nju.merge.IO.JSONUtils.loadTuplesFromJson;
 
 public class DatasetFilter {
 
     private List<MergeTuple> tuples;
+    private TupleBinaryFile binary;
+    private String project;
     private static final Logger logger = LoggerFactory.getLogger(DatasetFilter.class);
+    private static final String MIXLINES = "mixlines";
 
+    // built-in categories, by bit in the category mask
+    public static final int ACCEPT_ONE_SIDE = 0;
+    public static final int LACK_OF_RESOLUTION = 1;
+    public static final int COMPLETE = 2;
+    public static final int CONCAT = 3;
+    public static final int OUT_OF_VOCABULARY = 4;
+    public static final int MIX_LINE = 5;
+
+    private record Category(String name, TupleClassifier classifier, List<String> outputs, Metrics.Counter counter) {}
+
+    private static final Metrics.Counter TUPLES_CLASSIFIED = Metrics.counter("merge_tuples_classified_total");
+
+    private final List<Category> categories = new ArrayList<>();
+    private int total;
+    private int[] counts = new int[0];
+    // category outputs, opened on first use and written tuple by tuple
+    private final Map<String, TupleJsonWriter> outputs = new LinkedHashMap<>();
+
+    /**
+     * A {@code .tuples} file is classified on its line ids, without building MergeTuples for it.
+     */
     public DatasetFilter(String path) throws Exception {
-        this.tuples = loadTuplesFromJson(path);
+        this();
+        if(path.endsWith(".tuples")){
+            this.binary = new TupleBinaryFile(path);
+        }else{
+            this.tuples = loadTuplesFromJson(path);
+        }
+    }
+
+    /**
+     * Creates an empty filter that is fed tuple by tuple through {@link #accept(MergeTuple)}.
+     */
+    public DatasetFilter() {
+        this.tuples = new ArrayList<>();
+        addCategory("Accept one side", (t, ids, mask) -> filterAcceptOneSide(ids));
+        addCategory("Lack of resolution", (t, ids, mask) -> filterLackOfResolution(ids), "lackOfResolution");
+        addCategory("Complete tuples", (t, ids, mask) -> filterIncompleteTuple(ids));
+        addCategory("Concat", (t, ids, mask) -> isIn(mask, COMPLETE) && filterConcat(ids));
+        addCategory("Out of vocabulary", (t, ids, mask) -> isIn(mask, COMPLETE) && filterOutOfVocabularyLine(ids), "out");
+        // same as filterMixLine, from the bits already computed
+        addCategory("MixLine", (t, ids, mask) -> isIn(mask, COMPLETE) && !isIn(mask, ACCEPT_ONE_SIDE) && !isIn(mask, CONCAT) && !isIn(mask, OUT_OF_VOCABULARY),
+                "mix", MIXLINES);
+    }
+
+    /**
+     * Adds a category after the existing ones. It is counted in the report, and its tuples are written to
+     * {@code ./output/<output>/<project>.json} for each output given.
+     * @return the category's bit in the mask passed to later classifiers
+     */
+    public int addCategory(String name, TupleClassifier classifier, String... outputs){
+        if(categories.size() == Long.SIZE){
+            throw new IllegalStateException("at most " + Long.SIZE + " categories");
+        }
+        categories.add(new Category(name, classifier, List.of(outputs), Metrics.counter("merge_tuples_total", "category", name)));
+        counts = Arrays.copyOf(counts, categories.size());
+        return categories.size() - 1;
+    }
+
+    public static boolean isIn(long mask, int category){
+        return (mask & (1L << category)) != 0;
+    }
+
+    /**
+     * @param tuple the tuple without blank lines
+     * @param lines its sides as line ids
+     */
+    public long classify(MergeTuple tuple, InternedTuple lines){
+        long mask = 0;
+        for(int i = 0; i < categories.size(); i++){
+            if(categories.get(i).classifier().test(tuple, lines, mask)) mask |= 1L << i;
+        }
+        return mask;
+    }
+
+    /**
+     * Classifies line ids alone, without building the tuple's text.
+     * @throws IllegalStateException if categories were added, as they may read the tuple
+     */
+    public long classify(InternedTuple lines){
+        if(hasAddedCategories()){
+            throw new IllegalStateException("added categories need the tuple, not only its line ids");
+        }
+        return classify(null, lines);
+    }
+
+    private boolean hasAddedCategories(){
+        return categories.size() > MIX_LINE + 1;
+    }
+
+    /**
+     * @return category names, indexed by their bit in the mask
+     */
+    public List<String> getCategoryNames(){
+        return categories.stream().map(Category::name).toList();
+    }
+
+    public int getCount(int category){
+        return counts[category];
     }
 
 
@@ -74,41 +180,202 @@ public class DatasetFilter {
         return false;
     }
 
-    public void saveTuple2Json(List<MergeTuple> tuples, String kind) throws Exception {
-        JSONUtils.writeTuples2Json(tuples, "junit4",  PathUtil.getFileWithPathSegment("./output", kind));
+    // same predicates on interned line ids: int comparisons only, no allocation on the hot path
+
+    public static boolean filterIncompleteTuple(InternedTuple tuple){
+        return !(tuple.r.length == 0 || tuple.a.length == 0 || tuple.b.length == 0);
     }
 
+    public static boolean filterAcceptOneSide(InternedTuple tuple){
+        return Arrays.equals(tuple.r, tuple.a) || Arrays.equals(tuple.r, tuple.b) || Arrays.equals(tuple.r, tuple.o);
+    }
 
-    public void analysis() throws Exception {
-        String project = "platform_packages_apps_settings";
-        String output = PathUtil.getFileWithPathSegment("./output", "tuples", "mixlines.json");
-        logger.info("Total tuples : {}", this.tuples.size());
+    public static boolean filterConcat(InternedTuple tuple){
+        int a = tuple.a.length, b = tuple.b.length, r = tuple.r.length;
+        if(a == 0 || b == 0) return false;
+        if(r == a + b){
+            return Arrays.equals(tuple.r, 0, a, tuple.a, 0, a) && Arrays.equals(tuple.r, a, r, tuple.b, 0, b)
+                    ||
+                    Arrays.equals(tuple.r, 0, b, tuple.b, 0, b) && Arrays.equals(tuple.r, b, r, tuple.a, 0, a);
+        }
+        return false;
+    }
 
-        List<MergeTuple> acceptOneSide = this.tuples.stream().filter(DatasetFilter::filterAcceptOneSide).toList();
-        List<MergeTuple> lackOfR = this.tuples.stream().filter(DatasetFilter::filterLackOfResolution).toList();
-        logger.info("Accept one side : {} ", acceptOneSide.size());
-        logger.info("Lack of resolution : {} ", lackOfR.size());
+    public static boolean filterMixLine(InternedTuple tuple){
+        return !(tuple.r.length == 0 || filterAcceptOneSide(tuple) || filterConcat(tuple) || filterOutOfVocabularyLine(tuple));
+    }
 
+    public static boolean filterOutOfVocabularyLine(InternedTuple tuple){
+        LineMarks marks = LINE_MARKS.get();
+        marks.clear();
+        marks.mark(tuple.a);
+        marks.mark(tuple.b);
+        marks.mark(tuple.o);
+        for(int id : tuple.r){
+            if(!marks.isMarked(id)) return true;
+        }
+        return false;
+    }
 
+    public static boolean filterLackOfResolution(InternedTuple tuple){
+        return (tuple.r.length == 0);
+    }
 
-        this.tuples = this.tuples.stream().filter(DatasetFilter::filterIncompleteTuple).toList();
-        logger.info("Filter incomplete tuples");
-        logger.info("Complete tuples : {}", this.tuples.size());
+    private static final ThreadLocal<LineMarks> LINE_MARKS = ThreadLocal.withInitial(LineMarks::new);
 
-        List<MergeTuple> concat = this.tuples.stream().filter(DatasetFilter::filterConcat).toList();
-        List<MergeTuple> mixLine = this.tuples.stream().filter(DatasetFilter::filterMixLine).toList();
-        List<MergeTuple> outofVoca = this.tuples.stream().filter(DatasetFilter::filterOutOfVocabularyLine).toList();
+    /**
+     * Set of line ids, cleared in O(1) by moving to a new generation instead of wiping the array.
+     */
+    private static class LineMarks {
+        private int[] stamps = new int[1024];
+        private int generation;
+
+        void clear(){
+            if(++generation == 0){
+                Arrays.fill(stamps, 0);
+                generation = 1;
+            }
+        }
+
+        void mark(int[] ids){
+            for(int id : ids){
+                if(id >= stamps.length){
+                    stamps = Arrays.copyOf(stamps, Math.max(id + 1, stamps.length * 2));
+                }
+                stamps[id] = generation;
+            }
+        }
+
+        boolean isMarked(int id){
+            return id < stamps.length && stamps[id] == generation;
+        }
+    }
+
+    /**
+     * Names the category files after the project, so that several projects can be analysed side by side.
+     */
+    public void setProject(String project){
+        this.project = project;
+    }
+
+    public String getProject(){
+        return project;
+    }
+
+    public void saveTuple2Json(List<MergeTuple> tuples, String kind) throws Exception {
+        JSONUtils.writeTuples2Json(tuples, project == null ? "junit4" : project,  PathUtil.getFileWithPathSegment("./output", kind));
+    }
+
+    private void save(String kind, MergeTuple tuple){
+        try {
+            TupleJsonWriter writer = outputs.get(kind);
+            if(writer == null){
+                if(kind.equals(MIXLINES)){
+                    writer = new TupleJsonWriter(PathUtil.getFileWithPathSegment("./output", "tuples", "mixlines.json"),
+                            project == null ? "platform_packages_apps_settings" : project);
+                }else{
+                    writer = new TupleJsonWriter(PathUtil.getFileWithPathSegment("./output", kind), project == null ? "junit4" : project);
+                }
+                outputs.put(kind, writer);
+            }
+            if(tuple != null) writer.write(tuple);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
 
+    /**
+     * Classifies one tuple. Blank lines are ignored, as they are when tuples are loaded from JSON.
+     */
+    public void accept(MergeTuple tuple){
+        // the built-in categories only read line ids, the blank-free tuple is built when something reads it
+        MergeTuple t = hasAddedCategories() ? withoutBlankLines(tuple) : null;
+        record(classify(t, intern(tuple)), t != null ? () -> t : () -> withoutBlankLines(tuple));
+    }
+
+    /**
+     * Line ids only need to match within one tuple, so each thread reuses one table cleared for every tuple:
+     * a table shared by the whole run would hold every distinct line of the corpus.
+     */
+    private static InternedTuple intern(MergeTuple tuple){
+        return INTERNERS.get().intern(tuple);
+    }
 
-        saveTuple2Json(mixLine, "mix");
-        saveTuple2Json(outofVoca, "out");
-        saveTuple2Json(lackOfR, "lackOfResolution");
+    private static final ThreadLocal<LineInterner> INTERNERS = ThreadLocal.withInitial(LineInterner::new);
+
+    private static MergeTuple withoutBlankLines(MergeTuple tuple){
+        MergeTuple t = new MergeTuple(tuple.commitId, tuple.path);
+        t.a = JSONUtils.removeBlankLine(tuple.a);
+        t.b = JSONUtils.removeBlankLine(tuple.b);
+        t.o = JSONUtils.removeBlankLine(tuple.o);
+        t.r = JSONUtils.removeBlankLine(tuple.r);
+        return t;
+    }
 
+    /**
+     * Counts the tuple in every category of the mask and writes it to their outputs.
+     * @param tuple builds the blank-free tuple, only called if some output takes it
+     */
+    private void record(long mask, Supplier<MergeTuple> tuple){
+        total++;
+        TUPLES_CLASSIFIED.inc();
+        MergeTuple saved = null;
+        for(int i = 0; i < categories.size(); i++){
+            if(!isIn(mask, i)) continue;
+            counts[i]++;
+            categories.get(i).counter().inc();
+            for(String kind : categories.get(i).outputs()){
+                if(saved == null) saved = tuple.get();
+                save(kind, saved);
+            }
+        }
+    }
 
-        logger.info("Concat : {} ", concat.size());
-        logger.info("MixLine : {} ", mixLine.size());
-        logger.info("Out of vocabulary : {} ", outofVoca.size());
-        JSONUtils.writeTuples2Json(mixLine, project, output);
+    /**
+     * Classifies all tuples in one parallel pass, then counts and writes them in their original order.
+     */
+    public void analysis() throws Exception {
+        int n = binary != null ? binary.size() : tuples.size();
+        long[] masks = new long[n];
+        boolean text = hasAddedCategories();
+        IntStream.range(0, n).parallel().forEach(i -> {
+            if(binary != null){
+                masks[i] = classify(text ? binary.get(i) : null, binary.interned(i));
+            }else{
+                masks[i] = classify(text ? withoutBlankLines(tuples.get(i)) : null, intern(tuples.get(i)));
+            }
+        });
+        for(int i = 0; i < n; i++){
+            int index = i;
+            record(masks[i], binary != null ? () -> binary.get(index) : () -> withoutBlankLines(tuples.get(index)));
+        }
+        report();
+    }
+
+    /**
+     * Logs the counts and closes the category files; categories without tuples still get an empty file.
+     */
+    public void report() throws Exception {
+        logger.info("Total tuples : {}", total);
+        logger.info("Accept one side : {} ", counts[ACCEPT_ONE_SIDE]);
+        logger.info("Lack of resolution : {} ", counts[LACK_OF_RESOLUTION]);
+        logger.info("Filter incomplete tuples");
+        logger.info("Complete tuples : {}", counts[COMPLETE]);
+
+        for(Category category : categories){
+            category.outputs().forEach(kind -> save(kind, null));
+        }
+        for(TupleJsonWriter writer : outputs.values()){
+            writer.close();
+        }
+        outputs.clear();
+
+        logger.info("Concat : {} ", counts[CONCAT]);
+        logger.info("MixLine : {} ", counts[MIX_LINE]);
+        logger.info("Out of vocabulary : {} ", counts[OUT_OF_VOCABULARY]);
+        for(int i = MIX_LINE + 1; i < categories.size(); i++){
+            logger.info("{} : {} ", categories.get(i).name(), counts[i]);
+        }
     }
 }
@@ -0,0 +1,119 @@
+package nju.merge.core;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * In-process replacement for {@code git merge-file --diff3}.
+ * Both sides are diffed against the base with Myers, as git does; edits that overlap or touch in the base
+ * become one hunk, which is a conflict unless only one side changed it or both sides made the same change.
+ * A missing newline at the end of the file is kept unless it is followed by a conflict marker.
+ */
+public class Diff3Formatter {
+
+    private static final DiffAlgorithm diff = DiffAlgorithm.getAlgorithm(DiffAlgorithm.SupportedAlgorithm.MYERS);
+    private static final RawTextComparator cmp = RawTextComparator.DEFAULT;
+
+    private static final byte[] OURS_MARKER = "<<<<<<< ours\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BASE_MARKER = "||||||| base\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SEP_MARKER = "=======\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] THEIRS_MARKER = ">>>>>>> theirs\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * @return the merged file with diff3 conflict markers, or null if any side is binary
+     */
+    public static byte[] format(byte[] base, byte[] ours, byte[] theirs) throws IOException {
+        if(RawText.isBinary(base) || RawText.isBinary(ours) || RawText.isBinary(theirs)) return null;
+        RawText o = new RawText(base);
+        RawText a = new RawText(ours);
+        RawText b = new RawText(theirs);
+        EditList ea = diff.diff(cmp, o, a);
+        EditList eb = diff.diff(cmp, o, b);
+
+        // the side that changed whether the file ends with a newline wins
+        boolean eol = a.isMissingNewlineAtEnd() == o.isMissingNewlineAtEnd() ? !b.isMissingNewlineAtEnd() : !a.isMissingNewlineAtEnd();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(ours.length, theirs.length) + 256);
+        int i = 0, j = 0;
+        int baseLine = 0;
+        int offA = 0, offB = 0;
+        while(i < ea.size() || j < eb.size()){
+            boolean fromA = j >= eb.size() || (i < ea.size() && ea.get(i).getBeginA() <= eb.get(j).getBeginA());
+            int start = fromA ? ea.get(i).getBeginA() : eb.get(j).getBeginA();
+            int end = start;
+            int firstA = i, firstB = j;
+            boolean grown = true;
+            while(grown){
+                grown = false;
+                while(i < ea.size() && ea.get(i).getBeginA() <= end){
+                    end = Math.max(end, ea.get(i++).getEndA());
+                    grown = true;
+                }
+                while(j < eb.size() && eb.get(j).getBeginA() <= end){
+                    end = Math.max(end, eb.get(j++).getEndA());
+                    grown = true;
+                }
+            }
+
+            writeLines(out, o, baseLine, start, true);
+            int aStart = start + offA, bStart = start + offB;
+            offA += shift(ea, firstA, i);
+            offB += shift(eb, firstB, j);
+            int aEnd = end + offA, bEnd = end + offB;
+
+            if(i == firstA){
+                writeLines(out, b, bStart, bEnd, eol);
+            }else if(j == firstB){
+                writeLines(out, a, aStart, aEnd, eol);
+            }else if(sameLines(a, aStart, aEnd, b, bStart, bEnd)){
+                writeLines(out, a, aStart, aEnd, eol);
+            }else{
+                out.write(OURS_MARKER);
+                writeLines(out, a, aStart, aEnd, true);
+                out.write(BASE_MARKER);
+                writeLines(out, o, start, end, true);
+                out.write(SEP_MARKER);
+                writeLines(out, b, bStart, bEnd, true);
+                out.write(THEIRS_MARKER);
+            }
+            baseLine = end;
+        }
+        writeLines(out, o, baseLine, o.size(), eol);
+        return out.toByteArray();
+    }
+
+    private static int shift(EditList edits, int from, int to){
+        int delta = 0;
+        for(int k = from; k < to; k++){
+            Edit e = edits.get(k);
+            delta += e.getLengthB() - e.getLengthA();
+        }
+        return delta;
+    }
+
+    private static boolean sameLines(RawText a, int aStart, int aEnd, RawText b, int bStart, int bEnd){
+        if(aEnd - aStart != bEnd - bStart) return false;
+        for(int k = 0; k < aEnd - aStart; k++){
+            if(!cmp.equals(a, aStart + k, b, bStart + k)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param newlineAtEnd whether the last line of {@code text}, if written, is terminated
+     */
+    private static void writeLines(OutputStream out, RawText text, int start, int end, boolean newlineAtEnd) throws IOException {
+        for(int k = start; k < end; k++){
+            text.writeLine(out, k);
+            if(k + 1 < text.size() || newlineAtEnd) out.write('\n');
+        }
+    }
+}
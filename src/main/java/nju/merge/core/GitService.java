@@ -1,38 +1,76 @@
 package nju.merge.core;
 
+import nju.merge.IO.BlobStore;
+import nju.merge.IO.CheckpointIndex;
 import nju.merge.IO.PathUtil;
 import nju.merge.entity.CommitMergeScenario;
 import nju.merge.entity.MergeScenario;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.errors.MissingObjectException;
+import nju.merge.metrics.Metrics;
+import org.eclipse.jgit.diff.DiffConfig;
 import org.eclipse.jgit.lib.*;
-import org.eclipse.jgit.merge.MergeStrategy;
-import org.eclipse.jgit.merge.RecursiveMerger;
-import org.eclipse.jgit.merge.ThreeWayMerger;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
-import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
+import java.io.Flushable;
 import java.io.IOException;
-import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public class GitService {
 
     private static final Logger logger = LoggerFactory.getLogger(GitService.class);
+
+    private static final RevFilter TWO_PARENTS = new RevFilter() {
+        @Override
+        public boolean include(RevWalk walker, RevCommit c) {
+            return c.getParentCount() == 2;
+        }
+
+        @Override
+        public RevFilter clone() {
+            return this;
+        }
+
+        @Override
+        public boolean requiresCommitBody() {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "TWO_PARENTS";
+        }
+    };
     private String projectName;
     private String projectPath;
     private String conflictOutput;
 
     private Repository repo;
+    private RepositoryAccess access;
+    private BlobLookup blobs;
+    private BlobStore blobStore;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean writeSideFiles = true;
+    private String checkpointPath;
+    private Flushable sinkFlush;
+    private boolean precheck = true;
+    private boolean refresh = false;
+    private LanguageFilter files = LanguageFilter.JAVA;
+    private boolean detectRenames = true;
+    private RenameResolver renames;
+    private MergeReplayer replayer;
+
+    private static final Metrics.Counter CONFLICT_FILES = Metrics.counter("conflict_files_total");
+    private static final Metrics.Counter CONFLICT_FILES_SKIPPED = Metrics.counter("conflict_files_skipped_total", "reason", "virtual_base_markers");
+    private static final Metrics.Timer TREE_LOOKUP_TIME = Metrics.timer("stage_seconds", "stage", "tree_lookup");
+    private static final Metrics.Timer BLOB_READ_TIME = Metrics.timer("stage_seconds", "stage", "blob_read");
+    private static final Metrics.Timer DIFF3_TIME = Metrics.timer("stage_seconds", "stage", "diff3");
 
     public GitService(){}
     public GitService(String projectName, String projectPath, String conflictOutput){
@@ -41,91 +79,121 @@ public class GitService {
         this.projectName = projectName;
     }
 
+    public void setThreads(int threads){
+        this.threads = threads;
+    }
 
-    private Repository CloneIfNotExist(String path, String url) throws Exception {
-        File gitFolder = new File(path);
-        Repository repo;
-        if(gitFolder.exists()) {
-            logger.info("git repo {} is found...........", path);
-            FileRepositoryBuilder builder = new FileRepositoryBuilder();
-            repo = builder.setGitDir(new File(gitFolder, ".git"))
-                    .readEnvironment()
-                    .findGitDir()
-                    .build();
-        } else{
-            logger.info("downloading git repo from {}...........", url);
-            Git git = Git.cloneRepository()
-                    .setGitDir(gitFolder)
-                    .setURI(url)
-                    .setCloneAllBranches(true)
-                    .call();
-            repo = git.getRepository();
-        }
-        return repo;
+    /**
+     * Remember replayed merge commits in the given file so later runs only replay new ones.
+     */
+    public void setCheckpoint(String checkpointPath){
+        this.checkpointPath = checkpointPath;
+    }
+
+    /**
+     * Flushed after the scenarios of each merge commit went to the sink, before the commit is recorded in the checkpoint,
+     * so that a rerun never skips a commit whose output the sink still held in a buffer.
+     */
+    public void setSinkFlush(Flushable sinkFlush){
+        this.sinkFlush = sinkFlush;
+    }
+
+    /**
+     * Skip the content merge for merges whose trees show no accepted path changed on both sides.
+     */
+    public void setPrecheck(boolean precheck){
+        this.precheck = precheck;
     }
 
+    /**
+     * Which conflicting files are collected, .java files by default.
+     */
+    public void setLanguageFilter(LanguageFilter files){
+        this.files = files;
+    }
+
+    /**
+     * Look for a conflicting file under its other name in the commits where its path is missing,
+     * e.g. a truth that renamed it or a base that had it under an older name. On by default.
+     */
+    public void setDetectRenames(boolean detectRenames){
+        this.detectRenames = detectRenames;
+    }
+
+    /**
+     * Fetch new refs from the url into an already acquired repository before replaying, see {@link RepositoryMirror}.
+     */
+    public void setRefresh(boolean refresh){
+        this.refresh = refresh;
+    }
+
+    public void setWriteSideFiles(boolean writeSideFiles){
+        this.writeSideFiles = writeSideFiles;
+    }
+
+    public int getMergesReplayed(){
+        return replayer == null ? 0 : replayer.getReplayed();
+    }
+
+    public int getConflictingMerges(){
+        return replayer == null ? 0 : replayer.getConflicting();
+    }
+
+
     public void collectAllConflicts(String projectPath, String projectName, String url, String output) throws Exception{
+        collectAllConflicts(projectPath, projectName, url, output, null);
+    }
+
+    /**
+     * Replays every merge commit and hands each conflicting file to the sink as soon as its commit is replayed.
+     * Nothing is accumulated per merge: besides the commit headers held by the RevWalks, the heap holds at most
+     * the replay window (threads * 4) of CommitMergeScenarios, each released once its files reached the sink.
+     * @param output root of the conflictFiles tree, or null to keep the scenarios in memory only
+     * @param sink receives every scenario in commit order, may be null
+     */
+    public void collectAllConflicts(String projectPath, String projectName, String url, String output, Consumer<MergeScenario> sink) throws Exception{
         this.projectName = projectName;
         this.projectPath = projectPath;
         this.conflictOutput = output;
-        this.repo = CloneIfNotExist(this.projectPath,url);
-        List<RevCommit> commits = collectMergeCommits();
-        List<CommitMergeScenario> commitMergeScenarios = new ArrayList<>();
-        for(RevCommit c : commits){
-            mergeAndGetCMS(c, commitMergeScenarios);
-        }
-        if(!commitMergeScenarios.isEmpty()) {
-            for (var cms : commitMergeScenarios) {
-                collectAllConflictFiles(cms);
-            }
+        this.repo = RepositoryMirror.acquire(this.projectPath, url, refresh);
+        this.access = new RepositoryAccess(repo);
+        this.replayer = new MergeReplayer(repo, threads);
+        replayer.setPrecheck(precheck);
+        replayer.setLanguageFilter(files);
+        this.blobStore = output == null ? null : new BlobStore(PathUtil.getFileWithPathSegment(output, projectName, "blobs"));
+        try (RepositoryAccess access = this.access;
+             RevWalk revWalk = new RevWalk(access.reader());
+             CheckpointIndex checkpoint = checkpointPath == null ? null : new CheckpointIndex(checkpointPath)) {
+            this.blobs = new BlobLookup(access.reader());
+            this.renames = detectRenames ? new RenameResolver(access.reader(), repo.getConfig().get(DiffConfig.KEY), files) : null;
+            replayer.setCheckpoint(checkpoint);
+            replayer.replay(collectMergeCommits(revWalk), cms -> {
+                try {
+                    collectAllConflictFiles(cms, sink);
+                    if(checkpoint != null && sinkFlush != null) sinkFlush.flush();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
         }
-        threeWayMergeFile(conflictOutput);
     }
 
-    private List<RevCommit> collectMergeCommits() throws Exception {
+    /**
+     * Lazily yields the two-parent commits reachable from a branch, remote-tracking branch or tag, in the walk's date order.
+     * Other refs are left out, e.g. GitHub's refs/pull/* in repositories mirrored with {@code git clone --mirror}.
+     * Bodies are not retained, so the walk keeps only commit headers while the replay pulls merges on demand.
+     */
+    private Iterator<RevCommit> collectMergeCommits(RevWalk revWalk) throws Exception {
         logger.info("collecting merge commits");
-        List<RevCommit> commits = new ArrayList<>();
-        try (RevWalk revWalk = new RevWalk(repo)) {
-            for (Ref ref : repo.getRefDatabase().getRefs()) {
-                revWalk.markStart(revWalk.parseCommit(ref.getObjectId()));
-            }
-            for (RevCommit commit : revWalk) {
-                if(commit.getParentCount() == 2){
-                    commits.add(commit);
-                }
-            }
-        }
-        return commits;
-    }
-
-    private void mergeAndGetCMS(RevCommit merged, List<CommitMergeScenario> mergeScenarios) throws Exception {
-        RevCommit p1 = merged.getParents()[0];
-        RevCommit p2 = merged.getParents()[1];
-        logger.info("merge {} and {}, child commit {}", p1.getName(), p2.getName(), merged.getName());
-        ThreeWayMerger merger = MergeStrategy.RECURSIVE.newMerger(repo, true);
-        if(!merger.merge(p1, p2)){
-            RecursiveMerger rMerger = (RecursiveMerger)merger;
-            RevCommit base = (RevCommit) rMerger.getBaseCommitId();
-            CommitMergeScenario cms = new CommitMergeScenario();
-            rMerger.getMergeResults().forEach((file, result) -> {
-                if(file.endsWith(".java") && result.containsConflicts()){
-                    logger.info("conflicts were found in {}", file);
-                    cms.conflictFiles.add(file);
-                }
-            });
-            if(cms.conflictFiles.size() != 0){
-                cms.base = base;
-                cms.ours = p1;
-                cms.theirs = p2;
-                cms.truth = merged;
-                cms.commitId = merged.getName();
-                mergeScenarios.add(cms);
-            }
+        revWalk.setRetainBody(false);
+        revWalk.setRevFilter(TWO_PARENTS);
+        for (Ref ref : repo.getRefDatabase().getRefsByPrefix(Constants.R_HEADS, Constants.R_REMOTES, Constants.R_TAGS)) {
+            revWalk.markStart(revWalk.parseCommit(ref.getObjectId()));
         }
+        return revWalk.iterator();
     }
 
-
-    private void collectAllConflictFiles(CommitMergeScenario cms) throws Exception {
+    private void collectAllConflictFiles(CommitMergeScenario cms, Consumer<MergeScenario> sink) throws Exception {
         Map<String, MergeScenario> scenarioMap = new HashMap<>();
         for(var file : cms.conflictFiles){
             scenarioMap.put(file, new MergeScenario(projectName, cms.commitId, file));
@@ -135,113 +203,92 @@ public class GitService {
         RevCommit base = cms.base;
         RevCommit p1 = cms.ours;
         RevCommit p2 = cms.theirs;
-        logger.info("collecting scenario in merged commit {}", merged.getName());
+        logger.debug("collecting scenario in merged commit {}", merged.getName());
+        long start = System.nanoTime();
+        Map<String, ObjectId> truthIds = lookup(merged, p1, cms.conflictFiles);
+        Map<String, ObjectId> oursIds = lookup(p1, p2, cms.conflictFiles);
+        Map<String, ObjectId> theirsIds = lookup(p2, p1, cms.conflictFiles);
+        Map<String, ObjectId> baseIds = isBaseExist(base) ? lookup(base, p1, cms.conflictFiles) : Map.of();
+        boolean virtualBase = base != null && !access.has(base);
+        TREE_LOOKUP_TIME.observe(start);
         scenarioMap.forEach((file, scenario) -> {
             try {
-                scenario.truth = getFileWithCommitAndPath(file, merged);
-                scenario.ours = getFileWithCommitAndPath(file, p1);
-                scenario.theirs = getFileWithCommitAndPath(file, p2);
-                if(isBaseExist(base)){
-                    scenario.base = getFileWithCommitAndPath(file, base);
+                scenario.truthId = truthIds.get(file);
+                scenario.oursId = oursIds.get(file);
+                scenario.theirsId = theirsIds.get(file);
+                scenario.baseId = baseIds.get(file);
+                CONFLICT_FILES.inc();
+                long read = System.nanoTime();
+                scenario.truth = readBlob(scenario.truthId);
+                scenario.ours = readBlob(scenario.oursId);
+                scenario.theirs = readBlob(scenario.theirsId);
+                scenario.base = readBlob(scenario.baseId);
+                BLOB_READ_TIME.observe(read);
+                if(virtualBase && scenario.base != null && hasConflictMarkers(scenario.base)){
+                    // the merge of the merge bases conflicted on this file, markers in the base would read as hunks
+                    CONFLICT_FILES_SKIPPED.inc();
+                    logger.info("skipping {} in {}: its virtual base has conflict markers", file, merged.getName());
+                } else if(scenario.base != null && scenario.ours != null && scenario.theirs != null && scenario.truth != null){
+                    long diff3 = System.nanoTime();
+                    scenario.conflict = Diff3Formatter.format(scenario.base, scenario.ours, scenario.theirs);
+                    DIFF3_TIME.observe(diff3);
                 }
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         });
-        scenarioMap.forEach((f, s)-> {
-            try {
-                s.write2folder(conflictOutput);
-            } catch (Exception e) {
-                e.printStackTrace();
+        // a scenario that could not be written fails the merge commit, after the others are written
+        Exception failed = null;
+        for(MergeScenario s : scenarioMap.values()){
+            if(conflictOutput != null) {
+                try {
+                    s.write2folder(conflictOutput, writeSideFiles, blobStore);
+                } catch (Exception e) {
+                    if(failed == null) failed = e;
+                    else failed.addSuppressed(e);
+                }
             }
-        });
-    }
-
-    private boolean isBaseExist(ObjectId id) throws IOException {
-        RevWalk walk = new RevWalk(this.repo);
-        try {
-            AnyObjectId a = walk.parseAny(id);
-        }catch (MissingObjectException e){
-            logger.info("can't find base {}", id.getName());
-            e.printStackTrace();
-            return false;
+            if(sink != null) sink.accept(s);
         }
-        return true;
+        if(failed != null) throw failed;
     }
 
-    private byte[] getFileWithCommitAndPath(String filePath, RevCommit commit) throws IOException {
-        TreeWalk treeWalk = TreeWalk.forPath(this.repo, filePath, commit.getTree());
-        if(treeWalk == null) return null;
-        ObjectLoader objectLoader = this.repo.open(treeWalk.getObjectId(0));
-        return objectLoader.getBytes();
+    /**
+     * Blob ids of the paths in the commit, finding paths missing there under their name in that commit
+     * by comparing it with a reference commit that has them.
+     */
+    private Map<String, ObjectId> lookup(RevCommit commit, RevCommit reference, List<String> paths) throws IOException {
+        Map<String, ObjectId> ids = blobs.lookup(commit, paths);
+        if(renames == null || ids.size() == paths.size()) return ids;
+        List<String> missing = paths.stream().filter(p -> !ids.containsKey(p)).toList();
+        ids.putAll(renames.find(reference, commit, missing));
+        return ids;
     }
 
-    private byte[] getFileBytes(String path) throws IOException {
-        path = PathUtil.getSystemCompatiblePath(path);
-
-        File file = new File(path);
-        if(file.exists()) {
-            Path curPath = Paths.get(path);
-            return Files.readAllBytes(curPath);
-        }else{
-            return null;
-        }
+    /**
+     * A virtual base of a criss-cross merge is never written as a commit, only its tree is,
+     * so the base is looked up by its tree.
+     */
+    private boolean isBaseExist(RevCommit base) throws IOException {
+        if(base == null) return false;
+        if(access.has(base.getTree())) return true;
+        logger.debug("can't find tree of base {}", base.getName());
+        return false;
     }
 
-
-    private void threeWayMergeFile(String dir) throws IOException {
-        Path path = Paths.get(dir);
-        Files.walkFileTree(path, new FileVisitor<>() {
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                if (dir.toString().endsWith(".java")) {
-                    File[] fs = dir.toFile().listFiles();
-                    File base = null, a = null, b = null, truth = null;
-                    for (var f : fs) {
-                        if (f.getName().equals("base.java")) base = f;
-                        else if (f.getName().equals("ours.java")) a = f;
-                        else if (f.getName().equals("theirs.java")) b = f;
-                        else if (f.getName().equals("truth.java")) truth = f;
-                    }
-                    if (base != null && a != null && b != null && truth != null) {
-                        {
-                            File conflict = new File(dir.toString(), "conflict.java");
-                            if(conflict.exists()) conflict.delete();
-                            Files.copy(a.toPath(), conflict.toPath());
-                            logger.info("git merge-file --diff3 {} {} {}", conflict.getPath(), base.getPath(), b.getPath());
-                            ProcessBuilder pb2 = new ProcessBuilder(
-                                    "git",
-                                    "merge-file",
-                                    "--diff3",
-                                    conflict.getPath(),
-                                    base.getPath(),
-                                    b.getPath());
-                            try {
-                                pb2.start().waitFor();
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }
-                }
-                return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException exc) {
-                return FileVisitResult.CONTINUE;
+    private static boolean hasConflictMarkers(byte[] content){
+        for(int i = 0; i + 7 <= content.length; i++){
+            if((i == 0 || content[i - 1] == '\n') && content[i] == '<'){
+                int j = i;
+                while(j < i + 7 && content[j] == '<') j++;
+                if(j == i + 7) return true;
             }
+        }
+        return false;
+    }
 
-            @Override
-            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
-                return FileVisitResult.CONTINUE;
-            }
-        });
+    private byte[] readBlob(ObjectId id) throws IOException {
+        return id == null ? null : blobs.read(id);
     }
 
 }
@@ -0,0 +1,110 @@
+package nju.merge.core;
+
+import nju.merge.entity.MalformedHunk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the conflict hunks of a file in a single pass over its lines, looking at each line once.
+ * Hunks may be merge style ({@code <<<<<<<}, {@code =======}, {@code >>>>>>>}) or diff3 and zdiff3 style,
+ * which add a {@code |||||||} base section; both can appear in one file.
+ * <p>
+ * A marker is exactly {@code markerSize} marker characters followed by the end of the line or a space and a label.
+ * Longer or shorter runs are content, e.g. the markers of an inner merge of a recursive merge, which git
+ * writes two characters longer. Base markers, separators and end markers outside a hunk are content too.
+ * A marker that does not fit the hunk it appears in is reported and the hunk is dropped; parsing goes on
+ * with the next hunk.
+ */
+final class HunkParser {
+
+    static final int DEFAULT_MARKER_SIZE = 7;
+
+    private enum State { OUTSIDE, OURS, BASE, THEIRS }
+
+    /**
+     * Line numbers of the markers of a hunk.
+     * @param base line of the base marker, -1 for a merge style hunk
+     */
+    record Hunk(int start, int base, int separator, int end) {
+        boolean hasBase(){
+            return base >= 0;
+        }
+    }
+
+    @FunctionalInterface
+    interface Errors {
+        void malformed(int start, int line, MalformedHunk.Reason reason);
+    }
+
+    private HunkParser(){}
+
+    static List<Hunk> parse(SourceLines lines, int markerSize, Errors errors){
+        List<Hunk> hunks = new ArrayList<>();
+        State state = State.OUTSIDE;
+        int start = -1, base = -1, separator = -1;
+        for(int i = 0; i < lines.size(); i++){
+            char marker = marker(lines, i, markerSize);
+            if(marker == 0) continue;
+            switch (state) {
+                case OUTSIDE -> {
+                    if(marker == '<'){
+                        state = State.OURS;
+                        start = i;
+                        base = -1;
+                    }
+                }
+                case OURS, BASE -> {
+                    if(marker == '<'){
+                        errors.malformed(start, i, MalformedHunk.Reason.NESTED_START);
+                        state = State.OURS;
+                        start = i;
+                        base = -1;
+                    } else if(marker == '|' && state == State.OURS){
+                        state = State.BASE;
+                        base = i;
+                    } else if(marker == '='){
+                        state = State.THEIRS;
+                        separator = i;
+                    } else {
+                        errors.malformed(start, i, marker == '>' ? MalformedHunk.Reason.MISSING_SEPARATOR : MalformedHunk.Reason.UNEXPECTED_MARKER);
+                        state = State.OUTSIDE;
+                    }
+                }
+                case THEIRS -> {
+                    if(marker == '>'){
+                        hunks.add(new Hunk(start, base, separator, i));
+                        state = State.OUTSIDE;
+                    } else if(marker == '<'){
+                        errors.malformed(start, i, MalformedHunk.Reason.NESTED_START);
+                        state = State.OURS;
+                        start = i;
+                        base = -1;
+                    } else {
+                        errors.malformed(start, i, MalformedHunk.Reason.UNEXPECTED_MARKER);
+                        state = State.OUTSIDE;
+                    }
+                }
+            }
+        }
+        if(state != State.OUTSIDE){
+            errors.malformed(start, lines.size(), MalformedHunk.Reason.UNTERMINATED);
+        }
+        return hunks;
+    }
+
+    /**
+     * @return the marker character if the line is a marker, 0 otherwise
+     */
+    private static char marker(SourceLines lines, int line, int size){
+        int length = lines.length(line);
+        if(length < size) return 0;
+        char c = lines.charAt(line, 0);
+        if(c != '<' && c != '|' && c != '=' && c != '>') return 0;
+        for(int k = 1; k < size; k++){
+            if(lines.charAt(line, k) != c) return 0;
+        }
+        if(length > size && lines.charAt(line, size) != ' ') return 0;
+        return c;
+    }
+}
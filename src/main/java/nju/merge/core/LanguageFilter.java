@@ -0,0 +1,87 @@
+package nju.merge.core;
+
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decides which conflicting files are mined, by their path in the repository.
+ */
+@FunctionalInterface
+public interface LanguageFilter {
+
+    boolean accept(String path);
+
+    LanguageFilter JAVA = extensions(".java");
+
+    Map<String, List<String>> LANGUAGES = Map.ofEntries(
+            Map.entry("java", List.of(".java")),
+            Map.entry("kotlin", List.of(".kt", ".kts")),
+            Map.entry("scala", List.of(".scala")),
+            Map.entry("c", List.of(".c", ".h")),
+            Map.entry("cpp", List.of(".cc", ".cpp", ".cxx", ".c++", ".h", ".hh", ".hpp", ".hxx")),
+            Map.entry("csharp", List.of(".cs")),
+            Map.entry("go", List.of(".go")),
+            Map.entry("rust", List.of(".rs")),
+            Map.entry("python", List.of(".py")),
+            Map.entry("javascript", List.of(".js", ".jsx", ".mjs")),
+            Map.entry("typescript", List.of(".ts", ".tsx"))
+    );
+
+    static LanguageFilter extensions(String... suffixes){
+        String[] copy = suffixes.clone();
+        return path -> {
+            for(String suffix : copy){
+                if(path.endsWith(suffix)) return true;
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Parses a comma separated list of language names (see {@link #LANGUAGES}) and file extensions,
+     * e.g. {@code java,kotlin} or {@code cpp,.cu}.
+     */
+    static LanguageFilter of(String spec){
+        List<String> suffixes = new ArrayList<>();
+        for(String part : spec.split(",")){
+            String name = part.trim();
+            if(name.isEmpty()) continue;
+            if(name.startsWith(".")){
+                suffixes.add(name);
+                continue;
+            }
+            List<String> known = LANGUAGES.get(name.toLowerCase(Locale.ROOT));
+            if(known == null) throw new IllegalArgumentException("unknown language " + name);
+            suffixes.addAll(known);
+        }
+        return extensions(suffixes.toArray(new String[0]));
+    }
+
+    /**
+     * @return a TreeWalk filter entering every subtree and keeping the accepted files
+     */
+    default TreeFilter treeFilter(){
+        LanguageFilter self = this;
+        return new TreeFilter() {
+            @Override
+            public boolean include(TreeWalk tw) {
+                return tw.isSubtree() || self.accept(tw.getPathString());
+            }
+
+            @Override
+            public boolean shouldBeRecursive() {
+                return false;
+            }
+
+            @Override
+            public TreeFilter clone() {
+                return this;
+            }
+        };
+    }
+}
@@ -0,0 +1,120 @@
+package nju.merge.core;
+
+import java.util.List;
+
+/**
+ * Finds where the context before or after a conflict hunk lies in the resolved file.
+ * The resolved file is hashed once and indexed by line, so each hunk only visits the positions
+ * of its first context line, and never copies the file or the context. Lines read as bytes are compared as bytes,
+ * without being decoded.
+ * <p>
+ * Results are those of the original scan: the first position whose match with the context is the longest,
+ * stopping at the first match of at least 5 lines. A match that runs into the end of the file counts one line less.
+ */
+public class LineAligner {
+
+    private static final int ENOUGH = 5;
+
+    private final int[] context;    // id of each context line, -1 if it is not in the resolved file
+    private final int[] resolve;
+    private final int[] first;      // positions of line id x are positions[first[x] .. first[x + 1])
+    private final int[] positions;
+
+    public LineAligner(List<String> context, List<String> resolve){
+        this(SourceLines.of(context), SourceLines.of(resolve));
+    }
+
+    LineAligner(SourceLines context, SourceLines resolve){
+        // open addressing from a line to the id of its first occurrence in the resolved file, at most half full
+        int mask = Integer.highestOneBit(Math.max(1, resolve.size()) * 2) * 2 - 1;
+        int[] table = new int[mask + 1];    // 1 + id, 0 if free
+        int[] lineOf = new int[resolve.size()];
+        int ids = 0;
+        this.resolve = new int[resolve.size()];
+        for(int i = 0; i < this.resolve.length; i++){
+            int slot = slot(table, mask, lineOf, resolve, resolve, i);
+            if(table[slot] == 0){
+                lineOf[ids] = i;
+                table[slot] = ++ids;
+            }
+            this.resolve[i] = table[slot] - 1;
+        }
+        this.context = new int[context.size()];
+        for(int i = 0; i < this.context.length; i++){
+            this.context[i] = table[slot(table, mask, lineOf, resolve, context, i)] - 1;
+        }
+        // counting sort of positions by line id, ascending within each id
+        first = new int[ids + 1];
+        for(int id : this.resolve) first[id + 1]++;
+        for(int i = 0; i < ids; i++) first[i + 1] += first[i];
+        positions = new int[this.resolve.length];
+        int[] fill = first.clone();
+        for(int i = 0; i < this.resolve.length; i++){
+            positions[fill[this.resolve[i]]++] = i;
+        }
+    }
+
+    private static int slot(int[] table, int mask, int[] lineOf, SourceLines resolve, SourceLines lines, int line){
+        int h = lines.hash(line) * 0x9E3779B9;
+        int i = (h ^ (h >>> 16)) & mask;
+        while(table[i] != 0 && !resolve.equal(lineOf[table[i] - 1], lines, line)){
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Aligns context lines {@code [0, end)}, read backwards from {@code end - 1}.
+     * @return index in the resolved file of the line matching {@code end - 1}, -1 if there is no context
+     */
+    public int alignBefore(int end){
+        if(end == 0) return -1;
+        return resolve.length - align(true, end - 1, end) - 1;
+    }
+
+    /**
+     * Aligns context lines {@code [from, context.size())}.
+     * @return index in the resolved file of the line matching {@code from}, the file's size if there is no context
+     */
+    public int alignAfter(int from){
+        if(from >= context.length) return resolve.length;
+        return align(false, from, context.length - from);
+    }
+
+    /**
+     * Offsets here are in scan order: backwards scans count from the end of both the context and the resolved file.
+     * @param start context index of the first line of the snippet
+     * @param length number of snippet lines
+     */
+    private int align(boolean reverse, int start, int length){
+        int n = resolve.length;
+        int head = context[start];
+        if(head < 0) return 0;
+        int ret = 0;
+        int maxAlign = -1;
+        int from = first[head], to = first[head + 1];
+        for(int c = 0; c < to - from; c++){
+            int i = reverse ? n - 1 - positions[to - 1 - c] : positions[from + c];
+            int matched = 1;
+            while(matched <= ENOUGH && matched < length && i + matched < n
+                    && source(reverse, i + matched) == snippet(reverse, start, matched)){
+                matched++;
+            }
+            int k = i + matched == n ? matched - 1 : matched;
+            if(k > maxAlign){
+                maxAlign = k;
+                ret = i;
+                if(maxAlign >= ENOUGH) break;
+            }
+        }
+        return ret;
+    }
+
+    private int source(boolean reverse, int i){
+        return reverse ? resolve[resolve.length - 1 - i] : resolve[i];
+    }
+
+    private int snippet(boolean reverse, int start, int k){
+        return reverse ? context[start - k] : context[start + k];
+    }
+}
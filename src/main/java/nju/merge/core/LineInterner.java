@@ -0,0 +1,89 @@
+package nju.merge.core;
+
+import nju.merge.entity.InternedTuple;
+import nju.merge.entity.MergeTuple;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Gives every distinct line of a tuple a dense int id, so its sides can be compared as int arrays.
+ * Each line is hashed once, with the hash String caches. The table is open addressing over ints and is reused:
+ * interning a tuple only clears the slots the previous tuple used, so a long run allocates nothing but the id arrays.
+ * Not thread-safe, keep one per thread.
+ */
+public class LineInterner {
+
+    private int[] table = new int[64];          // 1 + id of the line in this slot, 0 if free
+    private String[] lines = new String[32];    // line of each id
+    private int[] slots = new int[32];          // slot of each id, to clear the table
+    private int size;
+
+    public int intern(String line){
+        int mask = table.length - 1;
+        int h = line.hashCode() * 0x9E3779B9;
+        int i = (h ^ (h >>> 16)) & mask;
+        while(table[i] != 0){
+            if(lines[table[i] - 1].equals(line)) return table[i] - 1;
+            i = (i + 1) & mask;
+        }
+        if(size == lines.length){
+            lines = Arrays.copyOf(lines, size * 2);
+            slots = Arrays.copyOf(slots, size * 2);
+        }
+        lines[size] = line;
+        slots[size] = i;
+        table[i] = ++size;
+        if(size * 2 > table.length) rehash();
+        return size - 1;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Forgets all lines; ids start again from 0.
+     */
+    public void clear(){
+        for(int id = 0; id < size; id++){
+            table[slots[id]] = 0;
+            lines[id] = null;
+        }
+        size = 0;
+    }
+
+    private void rehash(){
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for(int id = 0; id < size; id++){
+            int h = lines[id].hashCode() * 0x9E3779B9;
+            int i = (h ^ (h >>> 16)) & mask;
+            while(table[i] != 0) i = (i + 1) & mask;
+            table[i] = id + 1;
+            slots[id] = i;
+        }
+    }
+
+    /**
+     * Ids are only comparable within the returned tuple: the lines of earlier tuples are forgotten first.
+     * @return the tuple's sides as ids, without blank lines
+     */
+    public InternedTuple intern(MergeTuple tuple){
+        clear();
+        return new InternedTuple(intern(tuple.a), intern(tuple.b), intern(tuple.o), intern(tuple.r));
+    }
+
+    private int[] intern(List<String> lines){
+        int n = 0;
+        for(String line : lines){
+            if(!line.isEmpty()) n++;
+        }
+        int[] ret = new int[n];
+        int i = 0;
+        for(String line : lines){
+            if(!line.isEmpty()) ret[i++] = intern(line);
+        }
+        return ret;
+    }
+}
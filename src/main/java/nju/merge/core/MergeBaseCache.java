@@ -0,0 +1,121 @@
+package nju.merge.core;
+
+import nju.merge.metrics.Metrics;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Merge base of each (ours, theirs) commit pair, shared by all replay workers of one repository.
+ * A real base is kept as its id. A virtual base, the commit RECURSIVE builds by merging several merge bases,
+ * is kept as its raw commit; its tree was written by the merge that built it, so it is built only once.
+ * That tree is only readable by other workers once the builder's inserter is flushed, so a virtual base
+ * stays with the merge that built it, in its {@link Unpublished} set, until the merge calls {@link #publish}.
+ * Back-merges between the same long-lived branches keep asking for the same pairs,
+ * and so do the nested merges behind every virtual base.
+ */
+public class MergeBaseCache {
+
+    private static final int MAX_ENTRIES = 1 << 16;
+    private static final Metrics.Counter HITS = Metrics.counter("merge_base_cache_total", "result", "hit");
+    private static final Metrics.Counter MISSES = Metrics.counter("merge_base_cache_total", "result", "miss");
+
+    public interface BaseLoader {
+        /**
+         * @return the merge base, null if the commits share no history
+         */
+        RevCommit load() throws IOException;
+    }
+
+    /**
+     * @param commit id of a real base, null if there is none
+     * @param raw raw commit of a virtual base, null otherwise
+     */
+    private record Base(ObjectId commit, byte[] raw) {}
+
+    private record Key(ObjectId ours, ObjectId theirs) {}
+
+    private static final Base NONE = new Base(null, null);
+
+    /**
+     * Virtual bases built by one merge and not yet readable through other inserters' readers.
+     */
+    public static final class Unpublished {
+        private final Map<Key, Base> bases = new HashMap<>();
+    }
+
+    private final Map<Key, Base> bases = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder virtual = new LongAdder();
+
+    /**
+     * Returns the cached base of the pair as a commit of the given walk, or loads and caches it.
+     * A loaded base the walk's reader cannot find is taken to be virtual, and is only added to {@code unpublished}.
+     * @param unpublished virtual bases of the calling merge, which its walk can read
+     */
+    public RevCommit get(RevWalk walk, AnyObjectId ours, AnyObjectId theirs, Unpublished unpublished, BaseLoader loader) throws IOException {
+        Key key = new Key(ours.copy(), theirs.copy());
+        Base cached = unpublished.bases.get(key);
+        if(cached == null) cached = bases.get(key);
+        if(cached != null) {
+            hits.increment();
+            HITS.inc();
+            if(cached.raw != null) return RevCommit.parse(walk, cached.raw);
+            return cached.commit == null ? null : walk.parseCommit(cached.commit);
+        }
+        misses.increment();
+        MISSES.inc();
+        RevCommit base = loader.load();
+        if(base != null && !walk.getObjectReader().has(base)) {
+            virtual.increment();
+            unpublished.bases.put(key, new Base(base.copy(), base.getRawBuffer()));
+        } else {
+            store(key, base == null ? NONE : new Base(base.copy(), null));
+        }
+        return base;
+    }
+
+    /**
+     * Remembers a real merge base found elsewhere, e.g. by {@link MergePrecheck}.
+     * @param base the single merge base, null if the commits share no history
+     */
+    public void put(AnyObjectId ours, AnyObjectId theirs, RevCommit base){
+        store(new Key(ours.copy(), theirs.copy()), base == null ? NONE : new Base(base.copy(), null));
+    }
+
+    /**
+     * Shares the virtual bases of a merge with all workers; call it once the inserter that wrote their trees is flushed.
+     */
+    public void publish(Unpublished unpublished){
+        unpublished.bases.forEach(this::store);
+        unpublished.bases.clear();
+    }
+
+    private void store(Key key, Base base){
+        if(bases.size() >= MAX_ENTRIES) bases.clear();
+        bases.put(key, base);
+    }
+
+    public long getHits(){
+        return hits.sum();
+    }
+
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    /**
+     * @return number of virtual bases built, each pair only once while it stays cached
+     */
+    public long getVirtualBases(){
+        return virtual.sum();
+    }
+}
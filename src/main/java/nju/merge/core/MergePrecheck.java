@@ -0,0 +1,85 @@
+package nju.merge.core;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.IOException;
+
+/**
+ * Tree-level check run before the content merge: a merge can only produce a conflicting file of interest
+ * if such a path differs from the merge base on both sides, and differently on each side.
+ * Subtrees that at most one side touched are never entered.
+ */
+public class MergePrecheck {
+
+    /**
+     * Keeps the paths that differ from the base on both sides and differently on each side,
+     * entering only subtrees that both sides touched.
+     */
+    private static TreeFilter changedOnBothSides(LanguageFilter files){
+        return new TreeFilter() {
+            @Override
+            public boolean include(TreeWalk tw) {
+                if(tw.idEqual(0, 1) || tw.idEqual(0, 2) || tw.idEqual(1, 2)) return false;
+                return tw.isSubtree() || files.accept(tw.getPathString());
+            }
+
+            @Override
+            public boolean shouldBeRecursive() {
+                return false;
+            }
+
+            @Override
+            public TreeFilter clone() {
+                return this;
+            }
+
+            @Override
+            public String toString() {
+                return "CHANGED_ON_BOTH_SIDES";
+            }
+        };
+    }
+
+    /**
+     * @return false only if the merge of ours and theirs certainly has no conflicting .java file.
+     * Criss-cross merges with several merge bases are always reported as possibly conflicting.
+     */
+    public static boolean mayConflict(RevWalk walk, RevCommit ours, RevCommit theirs) throws IOException {
+        return mayConflict(walk, ours, theirs, LanguageFilter.JAVA, null);
+    }
+
+    /**
+     * Same as {@link #mayConflict(RevWalk, RevCommit, RevCommit)} for the files accepted by the filter,
+     * leaving a single merge base in the cache so that the content merge does not look for it again.
+     */
+    public static boolean mayConflict(RevWalk walk, RevCommit ours, RevCommit theirs, LanguageFilter files, MergeBaseCache bases) throws IOException {
+        walk.reset();
+        walk.setRevFilter(RevFilter.MERGE_BASE);
+        walk.markStart(ours);
+        walk.markStart(theirs);
+        RevCommit base = walk.next();
+        RevCommit other = base == null ? null : walk.next();
+        walk.reset();
+        walk.setRevFilter(RevFilter.ALL);
+        if(other != null) return true;
+        if(bases != null) bases.put(ours, theirs, base);
+
+        try (TreeWalk tw = new TreeWalk(walk.getObjectReader())) {
+            if(base == null) {
+                tw.addTree(new EmptyTreeIterator());
+            } else {
+                tw.addTree(walk.parseCommit(base).getTree());
+            }
+            tw.addTree(ours.getTree());
+            tw.addTree(theirs.getTree());
+            tw.setRecursive(true);
+            tw.setFilter(changedOnBothSides(files));
+            return tw.next();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package nju.merge.core;
+
+import nju.merge.IO.CheckpointIndex;
+import nju.merge.entity.CommitMergeScenario;
+import nju.merge.metrics.Metrics;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.RecursiveMerger;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Replays merge commits with RECURSIVE merges on a work-stealing pool.
+ * Every worker thread owns its ObjectInserter/ObjectReader/RevWalk over the shared repository,
+ * and scenarios are handed to the sink in the order the merge commits were supplied.
+ */
+public class MergeReplayer {
+
+    private static final Metrics.Counter MERGES_SCANNED = Metrics.counter("merges_scanned_total");
+    private static final Metrics.Counter MERGES_CONFLICTING = Metrics.counter("merges_conflicting_total");
+    private static final Metrics.Counter MERGES_PRECHECK_SKIPPED = Metrics.counter("merges_precheck_skipped_total");
+    private static final Metrics.Timer PRECHECK_TIME = Metrics.timer("stage_seconds", "stage", "precheck");
+    private static final Metrics.Timer MERGE_TIME = Metrics.timer("stage_seconds", "stage", "merge");
+
+    private static final Logger logger = LoggerFactory.getLogger(MergeReplayer.class);
+
+    private final Repository repo;
+    private final int threads;
+    private final int window;
+    private CheckpointIndex checkpoint;
+    private boolean precheck = true;
+    private LanguageFilter files = LanguageFilter.JAVA;
+    private final MergeBaseCache bases = new MergeBaseCache();
+
+    private final AtomicInteger replayed = new AtomicInteger();
+    private final AtomicInteger precheckSkipped = new AtomicInteger();
+    private final AtomicInteger precheckPassed = new AtomicInteger();
+    private final AtomicInteger conflicting = new AtomicInteger();
+
+    private final Queue<Worker> workers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Worker> worker = ThreadLocal.withInitial(this::newWorker);
+
+    public MergeReplayer(Repository repo, int threads){
+        this.repo = repo;
+        this.threads = Math.max(1, threads);
+        this.window = this.threads * 4;
+    }
+
+    /**
+     * Merge commits already done in the index are skipped, and every replayed one is recorded after the sink has handled it.
+     * A merge that throws, or whose scenario the sink throws on, is recorded as FAILED instead of aborting the replay,
+     * and is replayed again by the next run.
+     */
+    public void setCheckpoint(CheckpointIndex checkpoint){
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Whether merges are first checked with {@link MergePrecheck} so that the content merge is skipped
+     * when no accepted path was changed on both sides. On by default.
+     */
+    public void setPrecheck(boolean precheck){
+        this.precheck = precheck;
+    }
+
+    /**
+     * Which conflicting files make a merge commit a scenario, .java files by default.
+     */
+    public void setLanguageFilter(LanguageFilter files){
+        this.files = files;
+    }
+
+    /**
+     * @return number of merge commits replayed so far, not counting those skipped through the checkpoint
+     */
+    public int getReplayed(){
+        return replayed.get();
+    }
+
+    /**
+     * @return number of replayed merge commits with at least one conflicting accepted file
+     */
+    public int getConflicting(){
+        return conflicting.get();
+    }
+
+    /**
+     * Replays every merge commit and passes the conflicting ones to the sink, in input order.
+     * At most {@code threads * 4} merges are in flight at any time.
+     */
+    public void replay(Iterator<? extends ObjectId> merges, Consumer<CommitMergeScenario> sink) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Deque<Pending> inFlight = new ArrayDeque<>();
+        int skipped = 0, retried = 0;
+        try {
+            while(merges.hasNext()){
+                ObjectId merged = merges.next().copy();
+                if(checkpoint != null && checkpoint.isDone(merged)){
+                    skipped++;
+                    continue;
+                }
+                if(checkpoint != null && checkpoint.contains(merged)) retried++;
+                inFlight.add(new Pending(merged, pool.submit(() -> mergeAndGetCMS(merged))));
+                if(inFlight.size() >= window){
+                    emit(inFlight.poll(), sink);
+                }
+            }
+            while(!inFlight.isEmpty()){
+                emit(inFlight.poll(), sink);
+            }
+            if(skipped > 0){
+                logger.info("skipped {} merge commits found in the checkpoint", skipped);
+            }
+            if(retried > 0){
+                logger.info("retried {} merge commits that failed in an earlier run", retried);
+            }
+            logger.info("merge base cache: {} hits, {} misses, {} virtual bases built",
+                    bases.getHits(), bases.getMisses(), bases.getVirtualBases());
+            if(precheck){
+                logger.info("pre-check skipped {} merges, {} went to the content merge and {} of those conflicted",
+                        precheckSkipped.get(), precheckPassed.get(), conflicting.get());
+            }
+        } finally {
+            shutdown(pool);
+        }
+    }
+
+    /**
+     * Cancels the merges not started yet and waits for the running ones, which still use their worker's
+     * reader, before closing the workers.
+     */
+    private void shutdown(ForkJoinPool pool){
+        pool.shutdownNow();
+        boolean interrupted = false;
+        while(true){
+            try {
+                if(pool.awaitTermination(1, TimeUnit.MINUTES)) break;
+                logger.warn("waiting for running merges to finish");
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        workers.forEach(Worker::close);
+        workers.clear();
+        if(interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void emit(Pending pending, Consumer<CommitMergeScenario> sink) throws Exception {
+        CheckpointIndex.Status status;
+        try {
+            CommitMergeScenario cms = pending.task.get();
+            if(cms != null){
+                sink.accept(cms);
+            }
+            status = cms == null ? CheckpointIndex.Status.CLEAN : CheckpointIndex.Status.CONFLICT;
+        } catch (ExecutionException | RuntimeException e) {
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            if(checkpoint == null){
+                if(cause instanceof Exception ex) throw ex;
+                throw e;
+            }
+            logger.error("failed to replay merge commit {}", pending.commit.getName(), cause);
+            status = CheckpointIndex.Status.FAILED;
+        }
+        if(checkpoint != null){
+            checkpoint.record(pending.commit, status);
+        }
+    }
+
+    private record Pending(ObjectId commit, ForkJoinTask<CommitMergeScenario> task) {}
+
+    private CommitMergeScenario mergeAndGetCMS(ObjectId mergedId) throws Exception {
+        replayed.incrementAndGet();
+        MERGES_SCANNED.inc();
+        Worker w = worker.get();
+        RevCommit merged = w.walk.parseCommit(mergedId);
+        RevCommit p1 = w.walk.parseCommit(merged.getParent(0));
+        RevCommit p2 = w.walk.parseCommit(merged.getParent(1));
+        if(precheck){
+            long start = System.nanoTime();
+            boolean mayConflict = MergePrecheck.mayConflict(w.walk, p1, p2, files, bases);
+            PRECHECK_TIME.observe(start);
+            if(!mayConflict){
+                precheckSkipped.incrementAndGet();
+                MERGES_PRECHECK_SKIPPED.inc();
+                return null;
+            }
+            precheckPassed.incrementAndGet();
+        }
+        logger.debug("merge {} and {}, child commit {}", p1.getName(), p2.getName(), merged.getName());
+        long start = System.nanoTime();
+        WorkerMerger merger = new WorkerMerger(w, repo.getConfig(), bases);
+        boolean clean = merger.merge(false, p1, p2);
+        w.inserter.flush();
+        // the trees of the virtual bases the merge built are now readable by the other workers
+        bases.publish(merger.unpublished);
+        MERGE_TIME.observe(start);
+        if(clean) return null;
+
+        CommitMergeScenario cms = new CommitMergeScenario();
+        merger.getMergeResults().forEach((file, result) -> {
+            if(files.accept(file) && result.containsConflicts()){
+                logger.debug("conflicts were found in {}", file);
+                cms.conflictFiles.add(file);
+            }
+        });
+        if(cms.conflictFiles.isEmpty()) return null;
+        conflicting.incrementAndGet();
+        MERGES_CONFLICTING.inc();
+        // the base the merge used, a virtual one for criss-cross merges
+        cms.base = merger.base;
+        cms.ours = p1;
+        cms.theirs = p2;
+        cms.truth = merged;
+        cms.commitId = merged.getName();
+        return cms;
+    }
+
+    private Worker newWorker(){
+        Worker w = new Worker(repo);
+        workers.add(w);
+        return w;
+    }
+
+    private static class Worker {
+        final ObjectInserter inserter;
+        final ObjectReader reader;
+        final RevWalk walk;
+
+        Worker(Repository repo){
+            // the reader must come from the inserter so virtual bases stay visible before flushing
+            inserter = repo.newObjectInserter();
+            reader = inserter.newReader();
+            walk = new RevWalk(reader);
+            walk.setRetainBody(false);
+        }
+
+        void close(){
+            walk.close();
+            reader.close();
+            inserter.close();
+        }
+    }
+
+    /**
+     * In-core RECURSIVE merger running on the worker's reader and walk instead of fresh ones per merge,
+     * taking merge bases, including the nested ones behind a virtual base, from the shared cache.
+     */
+    private static class WorkerMerger extends RecursiveMerger {
+        private final MergeBaseCache bases;
+        final MergeBaseCache.Unpublished unpublished = new MergeBaseCache.Unpublished();
+        RevCommit base;
+
+        WorkerMerger(Worker w, Config config, MergeBaseCache bases){
+            super(w.inserter, config);
+            // drop the walk and reader super created for this merge
+            this.walk.close();
+            this.reader.close();
+            this.reader = w.reader;
+            this.walk = w.walk;
+            this.bases = bases;
+        }
+
+        @Override
+        protected RevCommit getBaseCommit(RevCommit a, RevCommit b, int callDepth) throws IOException {
+            RevCommit ret = bases.get(walk, a, b, unpublished, () -> super.getBaseCommit(a, b, callDepth));
+            if(callDepth == 0) base = ret;
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package nju.merge.core;
+
+import nju.merge.metrics.Metrics;
+import org.eclipse.jgit.diff.DiffConfig;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the file a conflicting path corresponds to in a commit where the path itself is missing,
+ * e.g. the truth of a merge commit that also renamed the file, or a base that had it under an older name.
+ * Only the accepted files changed between the two commits are compared, and content similarity is computed
+ * for at most {@code renameLimit^2} (added, deleted) pairs; beyond that only exact renames are found.
+ */
+public class RenameResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenameResolver.class);
+    private static final Metrics.Counter RENAMES_FOUND = Metrics.counter("renames_found_total");
+
+    private final ObjectReader reader;
+    private final DiffConfig config;
+    private final TreeFilter filter;
+    private int renameLimit = 400;
+
+    public RenameResolver(ObjectReader reader, DiffConfig config, LanguageFilter files){
+        this.reader = reader;
+        this.config = config;
+        this.filter = AndTreeFilter.create(TreeFilter.ANY_DIFF, files.treeFilter());
+    }
+
+    public void setRenameLimit(int renameLimit){
+        this.renameLimit = renameLimit;
+    }
+
+    /**
+     * @param reference a commit holding every path
+     * @param commit the commit the paths are missing from
+     * @return blob id in {@code commit} of each path that was renamed there, missing paths are absent
+     */
+    public Map<String, ObjectId> find(RevCommit reference, RevCommit commit, Collection<String> paths) throws IOException {
+        Set<String> wanted = new HashSet<>(paths);
+        Map<String, ObjectId> ret = new HashMap<>();
+        try (TreeWalk tw = new TreeWalk(reader)) {
+            tw.addTree(reference.getTree());
+            tw.addTree(commit.getTree());
+            tw.setRecursive(true);
+            tw.setFilter(filter);
+            RenameDetector rd = new RenameDetector(reader, config);
+            rd.setRenameLimit(renameLimit);
+            rd.addAll(DiffEntry.scan(tw));
+            for(DiffEntry e : rd.compute(reader, NullProgressMonitor.INSTANCE)){
+                if(e.getChangeType() == DiffEntry.ChangeType.RENAME && wanted.contains(e.getOldPath())){
+                    logger.debug("{} is {} in {}", e.getOldPath(), e.getNewPath(), commit.getName());
+                    ret.put(e.getOldPath(), e.getNewId().toObjectId());
+                }
+            }
+            if(rd.isOverRenameLimit()){
+                logger.debug("too many changed files between {} and {}, only exact renames were looked for", reference.getName(), commit.getName());
+            }
+        }
+        RENAMES_FOUND.add(ret.size());
+        return ret;
+    }
+}
@@ -0,0 +1,115 @@
+package nju.merge.core;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Owns an opened repository and the readers used on it: every thread gets one long-lived ObjectReader,
+ * reused for all its lookups and closed together with the repository.
+ * How packs are read (window cache size, window size, delta base cache, mmap) is JVM-wide, see {@link #installWindowCache}.
+ */
+public class RepositoryAccess implements AutoCloseable {
+
+    private static final int MAX_PRESENT = 1 << 16;
+
+    private final Repository repo;
+    private final Queue<ObjectReader> readers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<ObjectReader> reader;
+    private final Map<ObjectId, Boolean> present = new ConcurrentHashMap<>();
+
+    public RepositoryAccess(Repository repo){
+        this.repo = repo;
+        this.reader = ThreadLocal.withInitial(() -> {
+            ObjectReader r = repo.newObjectReader();
+            readers.add(r);
+            return r;
+        });
+    }
+
+    public Repository getRepository(){
+        return repo;
+    }
+
+    /**
+     * @return the calling thread's reader; do not close it
+     */
+    public ObjectReader reader(){
+        return reader.get();
+    }
+
+    /**
+     * Whether the object is in the repository, remembered per id since many merges share their merge base.
+     */
+    public boolean has(ObjectId id) throws IOException {
+        Boolean known = present.get(id);
+        if(known != null) return known;
+        boolean has = reader().has(id);
+        if(present.size() >= MAX_PRESENT) present.clear();
+        present.put(id.copy(), has);
+        return has;
+    }
+
+    @Override
+    public void close(){
+        readers.forEach(ObjectReader::close);
+        readers.clear();
+        repo.close();
+    }
+
+    /**
+     * Builds the pack access settings from {@code jgit.*} properties, e.g. {@code -Djgit.packedGitLimit=2g}.
+     * Sizes take a k, m or g suffix. Missing properties fall back to values sized for mining whole histories,
+     * which are larger than JGit's own defaults (10m of windows, 8k windows, 10m delta base cache).
+     * <ul>
+     *     <li>jgit.packedGitLimit: bytes of pack data kept in the window cache, default a quarter of the heap up to 1g</li>
+     *     <li>jgit.packedGitWindowSize: bytes read from a pack at a time, default 64k</li>
+     *     <li>jgit.packedGitOpenFiles: packs kept open, default 256</li>
+     *     <li>jgit.deltaBaseCacheLimit: bytes of inflated delta bases kept per reader, default 32m</li>
+     *     <li>jgit.packedGitMMAP: map packs into memory instead of reading them, default false</li>
+     *     <li>jgit.streamFileThreshold: largest blob read whole, default 50m</li>
+     * </ul>
+     */
+    public static WindowCacheConfig windowCacheConfig(Properties props){
+        WindowCacheConfig cfg = new WindowCacheConfig();
+        long heapQuarter = Runtime.getRuntime().maxMemory() / 4;
+        cfg.setPackedGitLimit(size(props, "jgit.packedGitLimit", Math.min(1L << 30, heapQuarter)));
+        cfg.setPackedGitWindowSize((int) size(props, "jgit.packedGitWindowSize", 64 << 10));
+        cfg.setPackedGitOpenFiles((int) size(props, "jgit.packedGitOpenFiles", 256));
+        cfg.setDeltaBaseCacheLimit((int) size(props, "jgit.deltaBaseCacheLimit", 32 << 20));
+        cfg.setPackedGitMMAP(Boolean.parseBoolean(props.getProperty("jgit.packedGitMMAP", "false")));
+        cfg.setStreamFileThreshold((int) size(props, "jgit.streamFileThreshold", 50 << 20));
+        return cfg;
+    }
+
+    /**
+     * Applies the settings to every repository of this JVM; call it before the repositories are read.
+     */
+    public static void installWindowCache(WindowCacheConfig cfg){
+        cfg.install();
+    }
+
+    private static long size(Properties props, String key, long def){
+        String value = props.getProperty(key);
+        if(value == null || value.isBlank()) return def;
+        value = value.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        switch (value.charAt(value.length() - 1)) {
+            case 'k' -> unit = 1L << 10;
+            case 'm' -> unit = 1L << 20;
+            case 'g' -> unit = 1L << 30;
+            default -> {}
+        }
+        if(unit > 1) value = value.substring(0, value.length() - 1);
+        return Long.parseLong(value) * unit;
+    }
+}
@@ -0,0 +1,109 @@
+package nju.merge.core;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.InvalidRemoteException;
+import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.util.FS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Gets the repository to mine without ever checking out a working tree.
+ * A missing repository becomes a bare clone of the branches and tags of its source: a remote URL, a {@code file://} URL,
+ * a local repository or a bundle file (e.g. from {@code git bundle create <name>.bundle --all}), so offline
+ * workers can be seeded without network access. An existing repository may be bare, a {@code .git} directory,
+ * a working tree holding {@code .git}, or {@code <path>.git}.
+ */
+public class RepositoryMirror {
+
+    private static final Logger logger = LoggerFactory.getLogger(RepositoryMirror.class);
+
+    // branches and tags only: hosts also advertise refs such as GitHub's refs/pull/*, which a normal clone leaves out
+    private static final RefSpec[] BARE = {
+            new RefSpec("+refs/heads/*:refs/heads/*"),
+            new RefSpec("+refs/tags/*:refs/tags/*")
+    };
+    private static final RefSpec[] WORK_TREE = {
+            new RefSpec("+refs/heads/*:refs/remotes/origin/*"),
+            new RefSpec("+refs/tags/*:refs/tags/*")
+    };
+
+    /**
+     * Opens the repository at path, mirroring url into it first if there is none.
+     * @param url source of the mirror, may be null if path already holds a repository
+     * @param refresh fetch into an existing repository the refs that changed at url since the last run;
+     *                only missing objects are transferred, and an unreachable url leaves the refs as they are
+     */
+    public static Repository acquire(String path, String url, boolean refresh) throws Exception {
+        File dir = new File(path);
+        if(url != null && new File(url).exists()) {
+            // JGit resolves a relative local source against the repository it fetches into
+            url = new File(url).getAbsolutePath();
+        }
+        File gitDir = RepositoryCache.FileKey.resolve(dir, FS.DETECTED);
+        if(gitDir == null) {
+            if(url == null) {
+                throw new IOException("no git repository at " + path);
+            }
+            mirror(url, dir);
+            return open(dir);
+        }
+        logger.info("git repo {} is found...........", gitDir);
+        Repository repo = open(gitDir);
+        if(new File(gitDir, "shallow").exists()) {
+            logger.warn("{} is shallow, merges below its shallow boundary are not replayed", gitDir);
+        }
+        if(refresh && url != null) {
+            fetch(repo, url);
+        }
+        return repo;
+    }
+
+    private static Repository open(File gitDir) throws IOException {
+        return new FileRepositoryBuilder()
+                .setGitDir(gitDir)
+                .setMustExist(true)
+                .build();
+    }
+
+    /**
+     * Clones into a sibling directory that is renamed into place when complete,
+     * so an interrupted clone is never mistaken for an empty repository by the next run.
+     */
+    private static void mirror(String url, File dir) throws Exception {
+        logger.info("cloning bare git repo from {}...........", url);
+        File tmp = new File(dir.getPath() + ".tmp");
+        FileUtils.deleteDirectory(tmp);
+        Git.cloneRepository()
+                .setURI(url)
+                .setDirectory(tmp)
+                .setBare(true)
+                .setCloneAllBranches(true)
+                .call()
+                .close();
+        Files.move(tmp.toPath(), dir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void fetch(Repository repo, String url) throws Exception {
+        try (Git git = new Git(repo)) {
+            FetchResult result = git.fetch()
+                    .setRemote(url)
+                    .setRefSpecs(repo.isBare() ? BARE : WORK_TREE)
+                    .call();
+            logger.info("fetched {} updated refs from {}", result.getTrackingRefUpdates().size(), url);
+        } catch (InvalidRemoteException | TransportException e) {
+            logger.warn("can't fetch from {}, mining the refs already in {}: {}", url, repo.getDirectory(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package nju.merge.core;
+
+import java.util.List;
+
+/**
+ * Lines of a conflict or resolved file, as read by tuple extraction: markers are tested and equal lines found
+ * without building a String for every line; only the lines a tuple keeps are materialized.
+ */
+interface SourceLines {
+
+    int size();
+
+    /**
+     * @return number of positions {@link #charAt} accepts: chars, or bytes for an encoded file
+     */
+    int length(int line);
+
+    /**
+     * Only meaningful for ASCII characters, which is all a conflict marker is made of.
+     */
+    char charAt(int line, int index);
+
+    String get(int line);
+
+    /**
+     * Equal lines have equal hashes only among lines of the same kind: a decoded line and the bytes it came from do not.
+     */
+    int hash(int line);
+
+    /**
+     * @param other lines of the same kind, e.g. the resolved file of this conflict file
+     */
+    boolean equal(int line, SourceLines other, int otherLine);
+
+    static SourceLines of(List<String> lines){
+        return new SourceLines() {
+            @Override
+            public int size() {
+                return lines.size();
+            }
+
+            @Override
+            public int length(int line) {
+                return lines.get(line).length();
+            }
+
+            @Override
+            public char charAt(int line, int index) {
+                return lines.get(line).charAt(index);
+            }
+
+            @Override
+            public String get(int line) {
+                return lines.get(line);
+            }
+
+            @Override
+            public int hash(int line) {
+                return lines.get(line).hashCode();
+            }
+
+            @Override
+            public boolean equal(int line, SourceLines other, int otherLine) {
+                return lines.get(line).equals(other.get(otherLine));
+            }
+        };
+    }
+}
@@ -0,0 +1,19 @@
+package nju.merge.core;
+
+import nju.merge.entity.InternedTuple;
+import nju.merge.entity.MergeTuple;
+
+/**
+ * One category of {@link DatasetFilter}. Classifiers run in registration order on many threads at once,
+ * and each one sees the categories already decided for the tuple, so it can build on them instead of recomputing.
+ */
+@FunctionalInterface
+public interface TupleClassifier {
+
+    /**
+     * @param tuple the tuple without blank lines, with its path and commit; {@link DatasetFilter#getProject()} names its project
+     * @param lines the same sides as line ids, which are only comparable within this tuple
+     * @param mask bit {@code i} is set if the tuple is in the category registered {@code i}-th; only earlier categories are filled in
+     */
+    boolean test(MergeTuple tuple, InternedTuple lines, long mask);
+}
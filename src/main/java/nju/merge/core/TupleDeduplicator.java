@@ -0,0 +1,302 @@
+package nju.merge.core;
+
+import nju.merge.entity.MergeTuple;
+import nju.merge.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Drops tuples that repeat an earlier one, in a single streaming pass.
+ * A tuple is an exact duplicate when its a/b/o/r lines equal those of an earlier tuple, and a near duplicate
+ * when its MinHash signature over the trimmed lines of each side shares a band with one of an earlier tuple
+ * (8 bands of 8 rows, so sets of lines about 0.77 Jaccard-similar or more are usually grouped).
+ * Only hashes are kept: an exact-hash table and a band-hash table, both growing up to a fixed number of slots
+ * and then replacing older entries, plus one int per cluster for the statistics, up to as many clusters
+ * as the exact table has slots.
+ */
+public class TupleDeduplicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(TupleDeduplicator.class);
+
+    private static final int BANDS = 8;
+    private static final int ROWS = 8;
+    // h_i(x) = (x * MULTIPLIERS[i] + SEEDS[i]) >>> 1 over the already mixed line hash x
+    private static final long[] MULTIPLIERS = new SplittableRandom(0x5EED).longs(BANDS * ROWS).map(m -> m | 1).toArray();
+    private static final long[] SEEDS = new SplittableRandom(0xB1A5).longs(BANDS * ROWS).toArray();
+    private static final int SLOT_BYTES = 12;
+
+    private static final Metrics.Counter EXACT = Metrics.counter("tuples_duplicate_total", "kind", "exact");
+    private static final Metrics.Counter NEAR = Metrics.counter("tuples_duplicate_total", "kind", "near");
+
+    private final HashTable exact;
+    private final HashTable bands;
+    private final int maxClusters;
+    private int[] sizes = new int[1 << 10];     // tuples in each cluster, for the first maxClusters clusters
+    private int clusters;
+    private long tuples;
+    private long exactDuplicates;
+    private long nearDuplicates;
+
+    /**
+     * Uses at most an eighth of the heap for its hash tables.
+     */
+    public TupleDeduplicator(){
+        this(Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    /**
+     * @param maxBytes memory for the hash tables and cluster sizes; once the tables are full, duplicates of old tuples
+     *                 may be missed, and once the sizes are, only the first clusters are in the size statistics
+     */
+    public TupleDeduplicator(long maxBytes){
+        long part = Math.max(1 << 10, maxBytes / (SLOT_BYTES * (1 + BANDS) + Integer.BYTES));
+        exact = new HashTable(floorPow2(part));
+        bands = new HashTable(floorPow2(part * BANDS));
+        maxClusters = floorPow2(part);
+    }
+
+    /**
+     * @return true if the tuple starts a new cluster and should be kept, false if it duplicates an earlier one
+     */
+    public boolean add(MergeTuple tuple){
+        long hash = exactHash(tuple);
+        long[] keys = bandKeys(tuple);
+        synchronized (this) {
+            tuples++;
+            int cluster = exact.get(hash);
+            if(cluster != 0){
+                exactDuplicates++;
+                EXACT.inc();
+                if(cluster < sizes.length) sizes[cluster]++;
+                return false;
+            }
+            if(keys != null){
+                for(long key : keys){
+                    cluster = bands.get(key);
+                    if(cluster != 0) break;
+                }
+            }
+            boolean near = cluster != 0;
+            if(near){
+                nearDuplicates++;
+                NEAR.inc();
+                if(cluster < sizes.length) sizes[cluster]++;
+            } else {
+                cluster = ++clusters;
+                if(cluster == sizes.length && sizes.length < maxClusters) sizes = Arrays.copyOf(sizes, sizes.length * 2);
+                if(cluster < sizes.length) sizes[cluster] = 1;
+            }
+            exact.put(hash, cluster);
+            if(keys != null){
+                for(long key : keys){
+                    if(bands.get(key) == 0) bands.put(key, cluster);
+                }
+            }
+            return !near;
+        }
+    }
+
+    public synchronized long getTuples(){
+        return tuples;
+    }
+
+    public synchronized int getClusters(){
+        return clusters;
+    }
+
+    public synchronized long getExactDuplicates(){
+        return exactDuplicates;
+    }
+
+    public synchronized long getNearDuplicates(){
+        return nearDuplicates;
+    }
+
+    /**
+     * Logs the duplicate counts, how many clusters have 1, 2, 3-4, 5-8, ... tuples, and the largest cluster sizes.
+     */
+    public synchronized void report(){
+        logger.info("Deduplicated tuples : {} of {} kept, {} exact and {} near duplicates dropped",
+                clusters, tuples, exactDuplicates, nearDuplicates);
+        int[] histogram = new int[32];
+        int[] largest = new int[5];
+        int counted = Math.min(clusters, sizes.length - 1);
+        for(int c = 1; c <= counted; c++){
+            int size = sizes[c];
+            histogram[32 - Integer.numberOfLeadingZeros(size - 1)]++;
+            if(size > largest[largest.length - 1]){
+                int i = largest.length - 1;
+                while(i > 0 && largest[i - 1] < size){
+                    largest[i] = largest[i - 1];
+                    i--;
+                }
+                largest[i] = size;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for(int k = 0; k < histogram.length; k++){
+            if(histogram[k] == 0) continue;
+            int from = k == 0 ? 1 : (1 << (k - 1)) + 1;
+            int to = 1 << k;
+            sb.append(sb.length() == 0 ? "" : ", ").append(from == to ? String.valueOf(to) : from + "-" + to).append(": ").append(histogram[k]);
+        }
+        if(counted < clusters){
+            logger.info("Cluster sizes of the first {} clusters : {}", counted, sb);
+        } else {
+            logger.info("Cluster sizes : {}", sb);
+        }
+        logger.info("Largest clusters : {}", Arrays.toString(Arrays.stream(largest).filter(s -> s > 0).toArray()));
+        if(exact.lost > 0 || bands.lost > 0){
+            logger.info("Dedup tables were full, {} exact and {} band hashes replaced older ones or were not kept", exact.lost, bands.lost);
+        }
+    }
+
+    private static long exactHash(MergeTuple tuple){
+        long h = 0;
+        h = hashLines(h, tuple.a);
+        h = hashLines(mix(h + 1), tuple.b);
+        h = hashLines(mix(h + 2), tuple.o);
+        h = hashLines(mix(h + 3), tuple.r);
+        return h;
+    }
+
+    private static long hashLines(long h, List<String> lines){
+        for(String line : lines){
+            h = mix(h ^ hash(line, 0, line.length()));
+        }
+        return mix(h ^ lines.size());
+    }
+
+    /**
+     * @return one key per band, or null if the tuple has no non-blank line
+     */
+    private static long[] bandKeys(MergeTuple tuple){
+        long[] signature = new long[BANDS * ROWS];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        boolean any = sign(signature, tuple.a, 1);
+        any |= sign(signature, tuple.b, 2);
+        any |= sign(signature, tuple.o, 3);
+        any |= sign(signature, tuple.r, 4);
+        if(!any) return null;
+        long[] keys = new long[BANDS];
+        for(int band = 0; band < BANDS; band++){
+            long key = mix(band + 1);
+            for(int row = 0; row < ROWS; row++){
+                key = mix(key ^ signature[band * ROWS + row]);
+            }
+            keys[band] = key;
+        }
+        return keys;
+    }
+
+    /**
+     * Folds the trimmed, non-blank lines of one side into the signature, as lines tagged with the side.
+     */
+    private static boolean sign(long[] signature, List<String> lines, int side){
+        boolean any = false;
+        for(String line : lines){
+            int from = 0, to = line.length();
+            while(from < to && line.charAt(from) <= ' ') from++;
+            while(to > from && line.charAt(to - 1) <= ' ') to--;
+            if(from == to) continue;
+            any = true;
+            long shingle = mix(hash(line, from, to) + side);
+            for(int i = 0; i < signature.length; i++){
+                long h = (shingle * MULTIPLIERS[i] + SEEDS[i]) >>> 1;
+                if(h < signature[i]) signature[i] = h;
+            }
+        }
+        return any;
+    }
+
+    private static long hash(String s, int from, int to){
+        long h = 0xcbf29ce484222325L;
+        for(int i = from; i < to; i++){
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long z){
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static int floorPow2(long n){
+        return (int) Long.highestOneBit(Math.min(n, 1 << 30));
+    }
+
+    /**
+     * Open-addressing map from a 64-bit hash to a cluster id, 0 meaning absent. It doubles at 3/4 load until
+     * {@code maxSlots}; after that it stays at 3/4 load: a new key replaces the key in its home slot,
+     * or is not kept if that slot is free.
+     */
+    private static final class HashTable {
+        private final int maxSlots;
+        private long[] keys = new long[1 << 10];
+        private int[] values = new int[1 << 10];
+        private int size;
+        long lost;
+
+        HashTable(int maxSlots){
+            this.maxSlots = Math.max(1 << 10, maxSlots);
+        }
+
+        int get(long key){
+            int mask = keys.length - 1;
+            int i = (int) key & mask;
+            while(values[i] != 0){
+                if(keys[i] == key) return values[i];
+                i = (i + 1) & mask;
+            }
+            return 0;
+        }
+
+        void put(long key, int value){
+            boolean loaded = size * 4L >= keys.length * 3L;
+            if(loaded && keys.length < maxSlots){
+                grow();
+                loaded = false;
+            }
+            int mask = keys.length - 1;
+            int home = (int) key & mask;
+            int i = home;
+            while(values[i] != 0){
+                if(keys[i] == key){
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            if(loaded){
+                // a quarter of the slots stay free so that lookups of absent keys stay short;
+                // replacing an occupied home slot leaves every probe sequence intact
+                lost++;
+                if(i != home){
+                    keys[home] = key;
+                    values[home] = value;
+                }
+                return;
+            }
+            size++;
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private void grow(){
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            size = 0;
+            for(int i = 0; i < oldKeys.length; i++){
+                if(oldValues[i] != 0) put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package nju.merge.core;
+
+import nju.merge.IO.PathUtil;
+import nju.merge.IO.TupleBinaryFile;
+import nju.merge.entity.MergeTuple;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Answers filtered queries over an index written by {@link TupleIndexWriter} without rescanning the corpus.
+ * The index is memory-mapped; a query walks the smallest posting list among its conditions (project, commit,
+ * path, path prefix, category, line count range) and checks the other conditions against the columns,
+ * so its cost is bounded by the size of that list rather than by the corpus.
+ * Instances are safe for concurrent queries.
+ */
+public class TupleIndex {
+
+    private final TupleBinaryFile corpus;
+    private final String[] projects;
+    private final String[] commits;
+    private final String[] paths;
+    private final String[] categories;
+    private final int size;
+    private final IntBuffer projectColumn;
+    private final IntBuffer commitColumn;
+    private final IntBuffer pathColumn;
+    private final IntBuffer linesColumn;
+    private final LongBuffer maskColumn;
+    private final Postings byProject;
+    private final Postings byCommit;
+    private final Postings byPath;
+    private final IntBuffer[] byCategory;
+    private final IntBuffer bySize;
+
+    public TupleIndex(String dir) throws IOException {
+        String path = PathUtil.getFileWithPathSegment(dir, TupleIndexWriter.INDEX);
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(Paths.get(path))) {
+            if(channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("index file larger than 2GB: " + path);
+            }
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(buf.getInt() != TupleIndexWriter.MAGIC) {
+            throw new IOException("not a tuple index: " + path);
+        }
+        int version = buf.getInt();
+        if(version != TupleIndexWriter.VERSION) {
+            throw new IOException("unsupported tuple index version " + version + ": " + path);
+        }
+        size = buf.getInt();
+        projects = strings(buf);
+        commits = strings(buf);
+        paths = strings(buf);
+        categories = strings(buf);
+        projectColumn = ints(buf, size);
+        commitColumn = ints(buf, size);
+        pathColumn = ints(buf, size);
+        linesColumn = ints(buf, size);
+        maskColumn = buf.slice(buf.position(), size * 8).asLongBuffer();
+        buf.position(buf.position() + size * 8);
+        byProject = new Postings(buf, projects.length);
+        byCommit = new Postings(buf, commits.length);
+        byPath = new Postings(buf, paths.length);
+        byCategory = new IntBuffer[categories.length];
+        for(int c = 0; c < categories.length; c++){
+            byCategory[c] = ints(buf, buf.getInt());
+        }
+        bySize = ints(buf, size);
+        corpus = new TupleBinaryFile(PathUtil.getFileWithPathSegment(dir, TupleIndexWriter.CORPUS + ".tuples"));
+        if(corpus.size() != size) {
+            throw new IOException("index of " + size + " tuples does not match its corpus of " + corpus.size() + " in " + dir);
+        }
+    }
+
+    private static IntBuffer ints(ByteBuffer buf, int count){
+        IntBuffer ret = buf.slice(buf.position(), count * 4).asIntBuffer();
+        buf.position(buf.position() + count * 4);
+        return ret;
+    }
+
+    private static String[] strings(ByteBuffer buf){
+        int count = buf.getInt();
+        int byteLength = buf.getInt();
+        IntBuffer offsets = ints(buf, count + 1);
+        String[] ret = new String[count];
+        for(int i = 0; i < count; i++){
+            byte[] bytes = new byte[offsets.get(i + 1) - offsets.get(i)];
+            buf.get(buf.position() + offsets.get(i), bytes);
+            ret[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buf.position(buf.position() + (byteLength + 3) / 4 * 4);
+        return ret;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public List<String> getCategories(){
+        return List.of(categories);
+    }
+
+    /**
+     * @return number of tuples of each project
+     */
+    public Map<String, Integer> getProjects(){
+        Map<String, Integer> ret = new LinkedHashMap<>();
+        for(int p = 0; p < projects.length; p++){
+            ret.put(projects[p], byProject.count(p));
+        }
+        return ret;
+    }
+
+    /**
+     * @return number of tuples in each category
+     */
+    public Map<String, Integer> getCategoryCounts(){
+        Map<String, Integer> ret = new LinkedHashMap<>();
+        for(int c = 0; c < categories.length; c++){
+            ret.put(categories[c], byCategory[c].limit());
+        }
+        return ret;
+    }
+
+    public Result query(Query q){
+        long start = System.nanoTime();
+        List<Candidate> candidates = new ArrayList<>();
+        int project = -1, commit = -1, path = -1;
+        int prefixFrom = 0, prefixTo = paths.length;
+        long included = 0, excluded = 0;
+        boolean empty = false;
+
+        if(q.project != null){
+            project = Arrays.binarySearch(projects, q.project);
+            if(project < 0) empty = true;
+            else candidates.add(byProject.candidate(project, project + 1));
+        }
+        if(q.commit != null){
+            commit = Arrays.binarySearch(commits, q.commit);
+            if(commit < 0) empty = true;
+            else candidates.add(byCommit.candidate(commit, commit + 1));
+        }
+        if(q.path != null){
+            path = Arrays.binarySearch(paths, q.path);
+            if(path < 0) empty = true;
+            else candidates.add(byPath.candidate(path, path + 1));
+        }
+        if(q.pathPrefix != null){
+            prefixFrom = lowerBound(paths, q.pathPrefix);
+            prefixTo = lowerBound(paths, q.pathPrefix + Character.MAX_VALUE);
+            if(prefixFrom == prefixTo) empty = true;
+            else candidates.add(byPath.candidate(prefixFrom, prefixTo));
+        }
+        for(String name : q.categories){
+            int c = category(name);
+            included |= 1L << c;
+            IntBuffer ids = byCategory[c];
+            candidates.add(new Candidate(ids.limit(), () -> ids));
+        }
+        for(String name : q.excluded){
+            excluded |= 1L << category(name);
+        }
+        if(q.minLines > 0 || q.maxLines < Integer.MAX_VALUE){
+            int from = lowerBoundLines(q.minLines);
+            int to = q.maxLines == Integer.MAX_VALUE ? size : lowerBoundLines(q.maxLines + 1);
+            if(from >= to) empty = true;
+            else candidates.add(new Candidate(to - from, () -> sorted(bySize, from, to)));
+        }
+
+        // only the smallest list is read (and sorted, for ranges); the other conditions are checked on the columns
+        Candidate smallest = null;
+        for(Candidate candidate : candidates){
+            if(smallest == null || candidate.count() < smallest.count()) smallest = candidate;
+        }
+        IntBuffer driver = empty || smallest == null ? null : smallest.ids().get();
+        int n = empty ? 0 : driver == null ? size : driver.limit();
+        int total = 0;
+        List<Integer> ids = new ArrayList<>(Math.min(q.limit, 1024));
+        for(int k = 0; k < n; k++){
+            int id = driver == null ? k : driver.get(k);
+            if(project >= 0 && projectColumn.get(id) != project) continue;
+            if(commit >= 0 && commitColumn.get(id) != commit) continue;
+            if(path >= 0 && pathColumn.get(id) != path) continue;
+            if(q.pathPrefix != null){
+                int p = pathColumn.get(id);
+                if(p < prefixFrom || p >= prefixTo) continue;
+            }
+            long mask = maskColumn.get(id);
+            if((mask & included) != included || (mask & excluded) != 0) continue;
+            int lines = linesColumn.get(id);
+            if(lines < q.minLines || lines > q.maxLines) continue;
+            if(total >= q.offset && ids.size() < q.limit) ids.add(id);
+            total++;
+        }
+        return new Result(total, ids.stream().mapToInt(Integer::intValue).toArray(), (System.nanoTime() - start) / 1_000_000.0);
+    }
+
+    private int category(String name){
+        String key = normalize(name);
+        List<Integer> matches = new ArrayList<>();
+        for(int c = 0; c < categories.length; c++){
+            String candidate = normalize(categories[c]);
+            if(candidate.equals(key)) return c;
+            if(!key.isEmpty() && candidate.startsWith(key)) matches.add(c);
+        }
+        if(matches.size() == 1) return matches.get(0);
+        if(matches.size() > 1){
+            throw new IllegalArgumentException("ambiguous category " + name + ", matches "
+                    + matches.stream().map(c -> categories[c]).toList());
+        }
+        throw new IllegalArgumentException("unknown category " + name + ", expected one of " + Arrays.toString(categories));
+    }
+
+    private static String normalize(String name){
+        return name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", "");
+    }
+
+    private static int lowerBound(String[] sorted, String key){
+        int i = Arrays.binarySearch(sorted, key);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * @return first position in {@code bySize} whose tuple has at least {@code lines} lines
+     */
+    private int lowerBoundLines(int lines){
+        int lo = 0, hi = size;
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(linesColumn.get(bySize.get(mid)) < lines) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static IntBuffer sorted(IntBuffer ids, int from, int to){
+        int[] ret = new int[to - from];
+        ids.get(from, ret);
+        Arrays.sort(ret);
+        return IntBuffer.wrap(ret);
+    }
+
+    public String project(int id){
+        return projects[projectColumn.get(id)];
+    }
+
+    public String commit(int id){
+        int c = commitColumn.get(id);
+        return c < 0 ? null : commits[c];
+    }
+
+    public int lines(int id){
+        return linesColumn.get(id);
+    }
+
+    public List<String> categories(int id){
+        long mask = maskColumn.get(id);
+        List<String> ret = new ArrayList<>();
+        for(int c = 0; c < categories.length; c++){
+            if(DatasetFilter.isIn(mask, c)) ret.add(categories[c]);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the tuple with its path and commit, blank lines removed
+     */
+    public MergeTuple get(int id){
+        MergeTuple tuple = corpus.get(id);
+        tuple.commitId = commit(id);
+        return tuple;
+    }
+
+    /**
+     * Conditions are combined with AND; null or empty ones are ignored.
+     * Category names match case-insensitively, ignoring spaces, and by a unique prefix,
+     * e.g. {@code concat}, {@code outOfVocabulary} or {@code complete}.
+     */
+    public static class Query {
+        public String project;
+        public String commit;
+        public String path;
+        public String pathPrefix;
+        public List<String> categories = new ArrayList<>();
+        public List<String> excluded = new ArrayList<>();
+        public int minLines = 0;
+        public int maxLines = Integer.MAX_VALUE;
+        public int offset = 0;
+        public int limit = 20;
+
+        /**
+         * Sets a condition from a {@code key=value} pair, as given on the command line or in a query string.
+         * {@code category} and {@code exclude} may repeat or hold a comma separated list.
+         */
+        public Query set(String key, String value){
+            switch (key) {
+                case "project" -> project = value;
+                case "commit", "commitId" -> commit = value;
+                case "path" -> path = value;
+                case "pathPrefix" -> pathPrefix = value;
+                case "category" -> categories.addAll(split(value));
+                case "exclude" -> excluded.addAll(split(value));
+                case "minLines" -> minLines = Integer.parseInt(value);
+                case "maxLines" -> maxLines = Integer.parseInt(value);
+                case "offset" -> offset = Integer.parseInt(value);
+                case "limit" -> limit = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("unknown query key " + key);
+            }
+            return this;
+        }
+
+        private static List<String> split(String value){
+            return Arrays.stream(value.split(",")).map(String::trim).filter(s -> !s.isEmpty()).toList();
+        }
+    }
+
+    /**
+     * @param total number of matching tuples
+     * @param ids ids of the matching tuples within the query's offset and limit, ascending
+     * @param tookMs time spent evaluating the query
+     */
+    public record Result(int total, int[] ids, double tookMs) {}
+
+    /**
+     * A posting list of a query condition, known by its length until it is read.
+     */
+    private record Candidate(int count, Supplier<IntBuffer> ids) {}
+
+    /**
+     * Tuple ids grouped by key: the ids of key k are {@code ids[starts[k]..starts[k + 1])}, ascending.
+     */
+    private static final class Postings {
+        private final IntBuffer starts;
+        private final IntBuffer ids;
+
+        Postings(ByteBuffer buf, int keys){
+            starts = ints(buf, keys + 1);
+            ids = ints(buf, starts.get(keys));
+        }
+
+        int count(int key){
+            return starts.get(key + 1) - starts.get(key);
+        }
+
+        /**
+         * @return ids of keys {@code [from, to)}, merged into one ascending list when read
+         */
+        Candidate candidate(int from, int to){
+            int start = starts.get(from), end = starts.get(to);
+            if(to - from == 1) return new Candidate(end - start, () -> ids.slice(start, end - start));
+            return new Candidate(end - start, () -> sorted(ids, start, end));
+        }
+    }
+}
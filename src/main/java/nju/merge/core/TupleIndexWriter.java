@@ -0,0 +1,297 @@
+package nju.merge.core;
+
+import nju.merge.IO.JSONUtils;
+import nju.merge.IO.PathUtil;
+import nju.merge.IO.TupleBinaryFile;
+import nju.merge.IO.TupleBinaryWriter;
+import nju.merge.entity.MergeTuple;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Builds the index read by {@link TupleIndex} over the tuples of any number of projects.
+ * Tuples are stored once in {@code <dir>/corpus.tuples}; on {@link #close()} they are classified with the
+ * {@link DatasetFilter} categories and {@code <dir>/index.bin} is written:
+ * <pre>
+ * int magic, int version, int tupleCount
+ * projects, commits, paths (each sorted), categories (in mask order), each as:
+ *     int count, int byteLength, int[count + 1] byte offsets, byte[byteLength] UTF-8 text, padding to 4 bytes
+ * int[tupleCount] project id, int[tupleCount] commit id (-1 if none), int[tupleCount] path id (-1 if none)
+ * int[tupleCount] line count (a + b + o + r, blank lines excluded), long[tupleCount] category mask
+ * for projects, commits and paths: int[count + 1] start of each one in ids, int[] ids of its tuples, ascending
+ * for each category: int n, int[n] ids of its tuples, ascending
+ * int[tupleCount] ids ordered by line count
+ * </pre>
+ */
+public class TupleIndexWriter implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TupleIndexWriter.class);
+
+    static final int MAGIC = 0x4D544958;    // "MTIX"
+    static final int VERSION = 1;
+    static final String CORPUS = "corpus";
+    static final String INDEX = "index.bin";
+
+    private static final List<String> EXTENSIONS = List.of(".json.gz", ".jsonl", ".json", ".tuples");
+
+    private final String dir;
+    private final TupleBinaryWriter corpus;
+    private final Dictionary projects = new Dictionary();
+    private final Dictionary commits = new Dictionary();
+    private final Dictionary paths = new Dictionary();
+    private int[] projectIds = new int[1024];
+    private int[] commitIds = new int[1024];
+    private int[] pathIds = new int[1024];
+    private int size;
+
+    public TupleIndexWriter(String dir) throws IOException {
+        this.dir = dir;
+        FileUtils.forceMkdir(new File(dir));
+        corpus = new TupleBinaryWriter(dir, CORPUS);
+    }
+
+    public void add(String project, MergeTuple tuple){
+        tuple = relativize(project, tuple);
+        if(size == projectIds.length){
+            projectIds = Arrays.copyOf(projectIds, size * 2);
+            commitIds = Arrays.copyOf(commitIds, size * 2);
+            pathIds = Arrays.copyOf(pathIds, size * 2);
+        }
+        projectIds[size] = projects.intern(project);
+        commitIds[size] = tuple.commitId == null || tuple.commitId.isEmpty() ? -1 : commits.intern(tuple.commitId);
+        pathIds[size] = tuple.path == null ? -1 : paths.intern(tuple.path);
+        size++;
+        corpus.write(tuple);
+    }
+
+    /**
+     * Tuples extracted from the conflictFiles tree carry their scenario directory,
+     * {@code .../<project>/<commit>/<path in the repository>}, and no commit, while streamed ones carry
+     * their commit and the path in the repository. Both are indexed the second way, so that path queries
+     * give the same answer however a project was mined.
+     * @return {@code tuple}, or a copy with the commit and path taken from the scenario directory
+     */
+    static MergeTuple relativize(String project, MergeTuple tuple){
+        if(tuple.path == null || tuple.commitId != null && !tuple.commitId.isEmpty()) return tuple;
+        // a leading slash lets a relative scenario directory, <project>/<commit>/..., match too
+        String path = "/" + tuple.path.replace('\\', '/');
+        String segment = "/" + project + "/";
+        for(int i = path.indexOf(segment); i >= 0; i = path.indexOf(segment, i + 1)){
+            int commit = i + segment.length();
+            int end = path.indexOf('/', commit);
+            if(end < 0 || !ObjectId.isId(path.substring(commit, end))) continue;
+            MergeTuple ret = new MergeTuple(path.substring(commit, end), path.substring(end + 1));
+            ret.startLine = tuple.startLine;
+            ret.endLine = tuple.endLine;
+            ret.a = tuple.a;
+            ret.b = tuple.b;
+            ret.o = tuple.o;
+            ret.r = tuple.r;
+            return ret;
+        }
+        return tuple;
+    }
+
+    /**
+     * Adds the tuples of a {@code .json}, {@code .json.gz}, {@code .jsonl} or {@code .tuples} file,
+     * or of every such file under a directory, each under the project its file is named after.
+     * Files inside the index directory itself are skipped.
+     */
+    public void addAll(String path) throws Exception {
+        Path index = Paths.get(dir).toAbsolutePath().normalize();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(Paths.get(path))) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(p -> projectOf(p.getFileName().toString()) != null)
+                    .filter(p -> !p.toAbsolutePath().normalize().startsWith(index))
+                    .sorted()
+                    .toList();
+        }
+        for(Path file : files){
+            String project = projectOf(file.getFileName().toString());
+            List<MergeTuple> tuples = JSONUtils.loadTuplesFromJson(file.toString());
+            logger.info("indexing {} tuples of {} from {}", tuples.size(), project, file);
+            for(MergeTuple tuple : tuples){
+                add(project, tuple);
+            }
+        }
+    }
+
+    /**
+     * @return the project a tuple file is named after, null if it is not a tuple file
+     */
+    public static String projectOf(String fileName){
+        for(String ext : EXTENSIONS){
+            if(fileName.endsWith(ext)) return fileName.substring(0, fileName.length() - ext.length());
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        corpus.close();
+        TupleBinaryFile file = new TupleBinaryFile(PathUtil.getFileWithPathSegment(dir, CORPUS + ".tuples"));
+        DatasetFilter df = new DatasetFilter();
+        long[] masks = new long[size];
+        int[] lines = new int[size];
+        IntStream.range(0, size).parallel().forEach(i -> {
+            var tuple = file.interned(i);
+            masks[i] = df.classify(tuple);
+            lines[i] = tuple.a.length + tuple.b.length + tuple.o.length + tuple.r.length;
+        });
+
+        int[] project = projects.remap(projectIds, size);
+        int[] commit = commits.remap(commitIds, size);
+        int[] path = paths.remap(pathIds, size);
+        List<String> categories = df.getCategoryNames();
+        File index = new File(PathUtil.getFileWithPathSegment(dir, INDEX));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            writeStrings(out, projects.sorted());
+            writeStrings(out, commits.sorted());
+            writeStrings(out, paths.sorted());
+            writeStrings(out, categories);
+            writeInts(out, project, size);
+            writeInts(out, commit, size);
+            writeInts(out, path, size);
+            writeInts(out, lines, size);
+            for(int i = 0; i < size; i++){
+                out.writeLong(masks[i]);
+            }
+            writePostings(out, project, projects.size());
+            writePostings(out, commit, commits.size());
+            writePostings(out, path, paths.size());
+            for(int c = 0; c < categories.size(); c++){
+                long bit = 1L << c;
+                int n = 0;
+                for(long mask : masks){
+                    if((mask & bit) != 0) n++;
+                }
+                out.writeInt(n);
+                for(int i = 0; i < size; i++){
+                    if((masks[i] & bit) != 0) out.writeInt(i);
+                }
+            }
+            long[] bySize = new long[size];
+            for(int i = 0; i < size; i++){
+                bySize[i] = (long) lines[i] << 32 | i;
+            }
+            Arrays.sort(bySize);
+            for(long key : bySize){
+                out.writeInt((int) key);
+            }
+        }
+        logger.info("indexed {} tuples of {} projects, {} commits and {} paths into {}",
+                size, projects.size(), commits.size(), paths.size(), dir);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        byte[][] encoded = new byte[strings.size()][];
+        int length = 0;
+        for(int i = 0; i < encoded.length; i++){
+            encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+            length += encoded[i].length;
+        }
+        out.writeInt(encoded.length);
+        out.writeInt(length);
+        int offset = 0;
+        out.writeInt(0);
+        for(byte[] e : encoded){
+            offset += e.length;
+            out.writeInt(offset);
+        }
+        for(byte[] e : encoded){
+            out.write(e);
+        }
+        for(int pad = (4 - length % 4) % 4; pad > 0; pad--){
+            out.write(0);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, int n) throws IOException {
+        for(int i = 0; i < n; i++){
+            out.writeInt(values[i]);
+        }
+    }
+
+    /**
+     * Groups tuple ids by key with a counting sort, so each group stays in ascending order.
+     */
+    private void writePostings(DataOutputStream out, int[] keys, int keyCount) throws IOException {
+        int[] starts = new int[keyCount + 1];
+        for(int i = 0; i < size; i++){
+            if(keys[i] >= 0) starts[keys[i] + 1]++;
+        }
+        for(int k = 0; k < keyCount; k++){
+            starts[k + 1] += starts[k];
+        }
+        int[] ids = new int[starts[keyCount]];
+        int[] next = Arrays.copyOf(starts, keyCount);
+        for(int i = 0; i < size; i++){
+            if(keys[i] >= 0) ids[next[keys[i]]++] = i;
+        }
+        writeInts(out, starts, keyCount + 1);
+        writeInts(out, ids, ids.length);
+    }
+
+    /**
+     * Strings numbered in order of appearance, renumbered in sorted order when the index is written
+     * so that lookups can binary search and a path prefix is a range of ids.
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private int[] rank;
+
+        int intern(String s){
+            Integer id = ids.get(s);
+            if(id == null){
+                id = strings.size();
+                ids.put(s, id);
+                strings.add(s);
+            }
+            return id;
+        }
+
+        int size(){
+            return strings.size();
+        }
+
+        List<String> sorted(){
+            List<String> sorted = new ArrayList<>(strings);
+            Collections.sort(sorted);
+            return sorted;
+        }
+
+        /**
+         * @return the column with every id replaced by its rank in sorted order, -1 kept as is
+         */
+        int[] remap(int[] column, int n){
+            if(rank == null){
+                Integer[] order = new Integer[strings.size()];
+                for(int i = 0; i < order.length; i++) order[i] = i;
+                Arrays.sort(order, Comparator.comparing(strings::get));
+                rank = new int[order.length];
+                for(int r = 0; r < order.length; r++) rank[order[r]] = r;
+            }
+            int[] ret = new int[n];
+            for(int i = 0; i < n; i++){
+                ret[i] = column[i] < 0 ? -1 : rank[column[i]];
+            }
+            return ret;
+        }
+    }
+}
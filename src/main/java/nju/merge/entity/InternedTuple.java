@@ -0,0 +1,19 @@
+package nju.merge.entity;
+
+/**
+ * A merge tuple whose sides are line ids from a {@link nju.merge.core.LineInterner} (or one tuple file),
+ * so equal lines of the tuple are equal ints. Blank lines are left out, as they are when tuples are loaded from JSON.
+ */
+public class InternedTuple {
+    public final int[] a;
+    public final int[] b;
+    public final int[] o;
+    public final int[] r;
+
+    public InternedTuple(int[] a, int[] b, int[] o, int[] r){
+        this.a = a;
+        this.b = b;
+        this.o = o;
+        this.r = r;
+    }
+}
@@ -0,0 +1,34 @@
+package nju.merge.entity;
+
+/**
+ * A conflict hunk whose markers do not parse. The other hunks of its file are still extracted.
+ */
+public class MalformedHunk {
+
+    public enum Reason {
+        /** a start marker before the previous hunk was closed; the new marker starts the next hunk */
+        NESTED_START,
+        /** an end marker before the separator */
+        MISSING_SEPARATOR,
+        /** a second base marker, or a base marker or separator after the separator */
+        UNEXPECTED_MARKER,
+        /** the file ends inside the hunk */
+        UNTERMINATED
+    }
+
+    public String commitId;
+    public String path;
+    public int startLine;   // line of the hunk's start marker
+    public int line;        // line at which it was given up
+    public Reason reason;
+    public String text;     // that line, null at the end of the file
+
+    public MalformedHunk(String commitId, String path, int startLine, int line, Reason reason, String text){
+        this.commitId = commitId;
+        this.path = path;
+        this.startLine = startLine;
+        this.line = line;
+        this.reason = reason;
+        this.text = text;
+    }
+}
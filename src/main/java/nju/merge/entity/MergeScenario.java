@@ -1,6 +1,9 @@
 package nju.merge.entity;
 
+import nju.merge.IO.BlobStore;
 import nju.merge.IO.PathUtil;
+import nju.merge.metrics.Metrics;
+import org.eclipse.jgit.lib.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,10 +14,18 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 
 public class MergeScenario {
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter("bytes_written_total", "target", "conflict_files");
+
     public byte[] base;
     public byte[] ours;
     public byte[] theirs;
     public byte[] truth;
+    public byte[] conflict;
+
+    public ObjectId baseId;
+    public ObjectId oursId;
+    public ObjectId theirsId;
+    public ObjectId truthId;
 
     public String fileName;
     public String project;
@@ -33,14 +44,51 @@ public class MergeScenario {
     }
 
     public void write2folder(String path) throws Exception {
+        write2folder(path, true);
+    }
+
+    /**
+     * @param withSides whether base/ours/theirs are written next to conflict and truth
+     */
+    public void write2folder(String path, boolean withSides) throws Exception {
+        write2folder(path, withSides, null);
+    }
+
+    /**
+     * The files are named after the version they hold, with the extension of the conflicting file,
+     * e.g. conflict.java and truth.java.
+     * @param store if not null, versions with a blob id are hard-linked from it instead of written again
+     */
+    public void write2folder(String path, boolean withSides, BlobStore store) throws Exception {
         String absPath = PathUtil.getFileWithPathSegment(path,project,commitID,fileName);
         Path p = Paths.get(absPath);
         Files.createDirectories(p);
-        logger.info("Writing files to path: {}", absPath);
-        write1file(PathUtil.getFileWithPathSegment(absPath, "base.java"), this.base);
-        write1file(PathUtil.getFileWithPathSegment(absPath, "ours.java"), this.ours);
-        write1file(PathUtil.getFileWithPathSegment(absPath, "theirs.java"), this.theirs);
-        write1file(PathUtil.getFileWithPathSegment(absPath, "truth.java"), this.truth);
+        logger.debug("Writing files to path: {}", absPath);
+        String ext = extensionOf(fileName);
+        if(withSides) {
+            writeBlob(store, PathUtil.getFileWithPathSegment(absPath, "base" + ext), this.baseId, this.base);
+            writeBlob(store, PathUtil.getFileWithPathSegment(absPath, "ours" + ext), this.oursId, this.ours);
+            writeBlob(store, PathUtil.getFileWithPathSegment(absPath, "theirs" + ext), this.theirsId, this.theirs);
+        }
+        writeBlob(store, PathUtil.getFileWithPathSegment(absPath, "truth" + ext), this.truthId, this.truth);
+        write1file(PathUtil.getFileWithPathSegment(absPath, "conflict" + ext), this.conflict);
+    }
+
+    /**
+     * @return the extension of the last segment of {@code fileName} with its dot, e.g. {@code .kt}, or "" if it has none
+     */
+    public static String extensionOf(String fileName){
+        String name = fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1);
+        int dot = name.lastIndexOf('.');
+        return dot <= 0 ? "" : name.substring(dot);
+    }
+
+    private void writeBlob(BlobStore store, String path, ObjectId id, byte[] bytes) throws Exception {
+        if(store == null || id == null || bytes == null) {
+            write1file(path, bytes);
+        } else {
+            store.link(id, bytes, Paths.get(path));
+        }
     }
 
     private void write1file(String path,byte[] bytes) throws Exception {
@@ -53,5 +101,6 @@ public class MergeScenario {
         fos.write(bytes, 0, bytes.length);
         fos.flush();
         fos.close();
+        BYTES_WRITTEN.add(bytes.length);
     }
 }
@@ -0,0 +1,159 @@
+package nju.merge.metrics;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and latency histograms of the pipeline. Updates are lock-free ({@link LongAdder}),
+ * so they can stay on the per-merge and per-file paths. Series are named the Prometheus way:
+ * {@code name{label="value"}}, with {@code _total} counters and {@code _seconds} histograms.
+ */
+public class Metrics {
+
+    // upper bounds of the histogram buckets, in seconds: 10us * 4^k, up to about 10s
+    private static final double[] BUCKETS = new double[11];
+    static {
+        for(int i = 0; i < BUCKETS.length; i++) BUCKETS[i] = 1e-5 * Math.pow(4, i);
+    }
+
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc(){
+            value.increment();
+        }
+
+        public void add(long n){
+            value.add(n);
+        }
+
+        public long get(){
+            return value.sum();
+        }
+    }
+
+    public static class Timer {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        Timer(){
+            for(int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        /**
+         * Records the time elapsed since {@code startNanos}, a value of {@link System#nanoTime()}.
+         */
+        public void observe(long startNanos){
+            long elapsed = System.nanoTime() - startNanos;
+            double seconds = elapsed / 1e9;
+            int i = 0;
+            while(i < BUCKETS.length && seconds > BUCKETS[i]) i++;
+            buckets[i].increment();
+            count.increment();
+            nanos.add(elapsed);
+        }
+
+        public long count(){
+            return count.sum();
+        }
+
+        public double seconds(){
+            return nanos.sum() / 1e9;
+        }
+    }
+
+    /**
+     * @param labels alternating label names and values
+     */
+    public static Counter counter(String name, String... labels){
+        return counters.computeIfAbsent(series(name, labels), k -> new Counter());
+    }
+
+    public static Timer timer(String name, String... labels){
+        return timers.computeIfAbsent(series(name, labels), k -> new Timer());
+    }
+
+    private static String series(String name, String... labels){
+        if(labels.length == 0) return name;
+        StringBuilder sb = new StringBuilder(name).append('{');
+        for(int i = 0; i + 1 < labels.length; i += 2){
+            if(i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"").append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String name(String series){
+        int brace = series.indexOf('{');
+        return brace < 0 ? series : series.substring(0, brace);
+    }
+
+    /**
+     * Adds a label to a series name, e.g. {@code stage_seconds{stage="merge"}} with le becomes
+     * {@code stage_seconds_bucket{stage="merge",le="0.001"}}.
+     */
+    private static String withSuffix(String series, String suffix, String label){
+        int brace = series.indexOf('{');
+        String name = brace < 0 ? series : series.substring(0, brace);
+        String labels = brace < 0 ? "" : series.substring(brace + 1, series.length() - 1);
+        if(label != null) labels = labels.isEmpty() ? label : labels + "," + label;
+        return name + suffix + (labels.isEmpty() ? "" : "{" + labels + "}");
+    }
+
+    public static String toPrometheus(){
+        StringBuilder sb = new StringBuilder();
+        String last = null;
+        for(Map.Entry<String, Counter> e : counters.entrySet()){
+            String name = name(e.getKey());
+            if(!name.equals(last)) sb.append("# TYPE ").append(name).append(" counter\n");
+            last = name;
+            sb.append(e.getKey()).append(' ').append(e.getValue().get()).append('\n');
+        }
+        for(Map.Entry<String, Timer> e : timers.entrySet()){
+            String name = name(e.getKey());
+            if(!name.equals(last)) sb.append("# TYPE ").append(name).append(" histogram\n");
+            last = name;
+            Timer t = e.getValue();
+            long cumulative = 0;
+            for(int i = 0; i <= BUCKETS.length; i++){
+                cumulative += t.buckets[i].sum();
+                String le = i < BUCKETS.length ? String.format(Locale.ROOT, "%g", BUCKETS[i]) : "+Inf";
+                sb.append(withSuffix(e.getKey(), "_bucket", "le=\"" + le + "\"")).append(' ').append(cumulative).append('\n');
+            }
+            sb.append(withSuffix(e.getKey(), "_sum", null)).append(' ').append(String.format(Locale.ROOT, "%.6f", t.seconds())).append('\n');
+            sb.append(withSuffix(e.getKey(), "_count", null)).append(' ').append(t.count()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static String toJson(){
+        JSONObject root = new JSONObject(true);
+        root.put("timestamp", System.currentTimeMillis());
+        JSONObject c = new JSONObject(true);
+        counters.forEach((k, v) -> c.put(k, v.get()));
+        root.put("counters", c);
+        JSONObject h = new JSONObject(true);
+        timers.forEach((k, t) -> {
+            JSONObject o = new JSONObject(true);
+            o.put("count", t.count());
+            o.put("sumSeconds", t.seconds());
+            JSONObject b = new JSONObject(true);
+            for(int i = 0; i <= BUCKETS.length; i++){
+                b.put(i < BUCKETS.length ? String.format(Locale.ROOT, "%g", BUCKETS[i]) : "+Inf", t.buckets[i].sum());
+            }
+            o.put("buckets", b);
+            h.put(k, o);
+        });
+        root.put("histograms", h);
+        return JSON.toJSONString(root, true);
+    }
+}
@@ -0,0 +1,62 @@
+package nju.merge.metrics;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes {@code metrics.json} and {@code metrics.prom} (Prometheus text format) into a directory every period,
+ * and once more on close. Each file is replaced atomically, so a reader never sees half a snapshot.
+ */
+public class MetricsReporter implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsReporter.class);
+
+    private final Path dir;
+    private final ScheduledExecutorService timer;
+
+    public MetricsReporter(String dir, long periodSeconds) throws IOException {
+        this.dir = Paths.get(dir);
+        FileUtils.forceMkdir(new File(dir));
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleAtFixedRate(this::snapshot, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    private synchronized void snapshot(){
+        try {
+            write("metrics.json", Metrics.toJson());
+            write("metrics.prom", Metrics.toPrometheus());
+        } catch (IOException e) {
+            logger.warn("failed to write metrics to {}", dir, e);
+        }
+    }
+
+    private void write(String name, String content) throws IOException {
+        Path target = dir.resolve(name);
+        Path tmp = dir.resolve(name + ".tmp");
+        Files.write(tmp, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void close(){
+        timer.shutdownNow();
+        snapshot();
+    }
+}
@@ -0,0 +1,52 @@
+package nju.merge.IO;
+
+import com.alibaba.fastjson.JSON;
+import nju.merge.entity.MalformedHunk;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class MalformedHunkWriterTest {
+
+    @TempDir
+    Path dir;
+
+    private void write(boolean append, String... commits) throws IOException {
+        try (MalformedHunkWriter writer = new MalformedHunkWriter(dir.toString(), "p", append)) {
+            for(String commit : commits) {
+                writer.accept(new MalformedHunk(commit, "A.java", 0, 3, MalformedHunk.Reason.UNTERMINATED, null));
+            }
+        }
+    }
+
+    private List<String> lines() throws IOException {
+        return Files.readAllLines(dir.resolve("p.jsonl"));
+    }
+
+    @Test
+    void rerunReplacesTheReport() throws IOException {
+        write(false, "c1", "c2");
+        write(false);
+        assertFalse(Files.exists(dir.resolve("p.jsonl")));
+    }
+
+    @Test
+    void resumedRunKeepsTheReport() throws IOException {
+        write(false, "c1");
+        Files.writeString(dir.resolve("p.jsonl"), "{\"commitId\":\"c2", StandardOpenOption.APPEND);
+        write(true);
+        write(true, "c3");
+        List<String> lines = lines();
+        assertEquals(2, lines.size());
+        assertEquals("c1", JSON.parseObject(lines.get(0)).getString("commitId"));
+        assertEquals("c3", JSON.parseObject(lines.get(1)).getString("commitId"));
+    }
+}
@@ -0,0 +1,64 @@
+package nju.merge.IO;
+
+import nju.merge.entity.MergeTuple;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TupleJsonlWriterTest {
+
+    @TempDir
+    Path dir;
+
+    private static MergeTuple tuple(String commit){
+        MergeTuple tuple = new MergeTuple(commit, "src/A.java");
+        tuple.a.add("int a = 1;");
+        tuple.b.add("int a = 2;");
+        tuple.r.add("int a = 2;");
+        return tuple;
+    }
+
+    private Path write(boolean append, String... commits) throws IOException {
+        try (TupleWriter writer = new TupleJsonlWriter(dir.toString(), "p", append)) {
+            for(String commit : commits) writer.write(tuple(commit));
+        }
+        return dir.resolve("p.jsonl");
+    }
+
+    private static List<String> commits(Path file) throws IOException {
+        return TupleJsonlReader.load(file.toString()).stream().map(t -> t.commitId).toList();
+    }
+
+    @Test
+    void appendsAfterExistingTuples() throws IOException {
+        write(false, "c1", "c2");
+        Path file = write(true, "c3");
+        assertEquals(List.of("c1", "c2", "c3"), commits(file));
+    }
+
+    /**
+     * A run killed while writing a tuple leaves part of it as the last line; the next run drops it.
+     */
+    @Test
+    void appendDropsTruncatedLine() throws IOException {
+        Path file = write(false, "c1", "c2");
+        Files.writeString(file, "{\"path\":\"src/A.java\",\"commitId\":\"c3\",\"a\":[\"int", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        write(true, "c3", "c4");
+        assertEquals(List.of("c1", "c2", "c3", "c4"), commits(file));
+    }
+
+    @Test
+    void appendToFileWithOnlyTruncatedLine() throws IOException {
+        Files.writeString(dir.resolve("p.jsonl"), "{\"path\":\"src/A", StandardCharsets.UTF_8);
+        Path file = write(true, "c1");
+        assertEquals(List.of("c1"), commits(file));
+    }
+}
@@ -0,0 +1,32 @@
+package nju.merge.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepoSchedulerTest {
+
+    @Test
+    void failedRepositoriesAreReported() throws InterruptedException {
+        Map<String, String> repos = new LinkedHashMap<>();
+        repos.put("ok", "a");
+        repos.put("exception", "b");
+        repos.put("error", "c");
+        List<RepoScheduler.RepoReport> reports = new RepoScheduler(2).run(repos, (name, source, report) -> {
+            if(name.equals("exception")) throw new IllegalStateException("broken");
+            if(name.equals("error")) throw new OutOfMemoryError("heap");
+            report.merges = 3;
+        });
+        assertEquals(3, reports.size());
+        assertNull(reports.get(0).error);
+        assertEquals(3, reports.get(0).merges);
+        assertTrue(reports.get(1).toString().contains("FAILED (java.lang.IllegalStateException: broken)"));
+        assertTrue(reports.get(2).toString().contains("FAILED (java.lang.OutOfMemoryError: heap)"));
+    }
+}
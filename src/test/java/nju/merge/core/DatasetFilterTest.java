@@ -0,0 +1,56 @@
+package nju.merge.core;
+
+import nju.merge.entity.MergeTuple;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DatasetFilterTest {
+
+    private static MergeTuple tuple(String path, List<String> a, List<String> b, List<String> r){
+        MergeTuple tuple = new MergeTuple("c1", path);
+        tuple.a.addAll(a);
+        tuple.b.addAll(b);
+        tuple.r.addAll(r);
+        return tuple;
+    }
+
+    @Test
+    void builtInCategories(){
+        DatasetFilter filter = new DatasetFilter();
+        filter.accept(tuple("A.java", List.of("x"), List.of("y"), List.of("y")));
+        filter.accept(tuple("A.java", List.of("x"), List.of("y"), List.of("x", "", "y")));
+        filter.accept(tuple("A.java", List.of("x"), List.of("y"), List.of()));
+        filter.accept(tuple("A.java", List.of("x"), List.of("y"), List.of("z")));
+        filter.accept(tuple("A.java", List.of("x", "z"), List.of("y"), List.of("z", "y")));
+        // an empty resolution also takes the empty base
+        assertEquals(2, filter.getCount(DatasetFilter.ACCEPT_ONE_SIDE));
+        assertEquals(1, filter.getCount(DatasetFilter.CONCAT));
+        assertEquals(1, filter.getCount(DatasetFilter.LACK_OF_RESOLUTION));
+        assertEquals(4, filter.getCount(DatasetFilter.COMPLETE));
+        assertEquals(1, filter.getCount(DatasetFilter.OUT_OF_VOCABULARY));
+        assertEquals(1, filter.getCount(DatasetFilter.MIX_LINE));
+    }
+
+    /**
+     * An added category sees the tuple's path and text, without blank lines, next to the masks of the built-in ones.
+     */
+    @Test
+    void addedCategoryReadsTheTuple(){
+        DatasetFilter filter = new DatasetFilter();
+        filter.setProject("p");
+        int tests = filter.addCategory("Tests", (t, ids, mask) -> t.path.startsWith("src/test/"));
+        int imports = filter.addCategory("Imports", (t, ids, mask) -> DatasetFilter.isIn(mask, DatasetFilter.COMPLETE)
+                && t.r.size() == ids.r.length && t.r.stream().allMatch(line -> line.startsWith("import ")));
+        int project = filter.addCategory("Project", (t, ids, mask) -> "p".equals(filter.getProject()));
+        filter.accept(tuple("src/test/ATest.java", List.of("import a;"), List.of("import b;"), List.of("import a;", "", "import b;")));
+        filter.accept(tuple("src/main/A.java", List.of("import a;"), List.of("int b;"), List.of("int b;")));
+        assertEquals(1, filter.getCount(tests));
+        assertEquals(1, filter.getCount(imports));
+        assertEquals(2, filter.getCount(project));
+        assertThrows(IllegalStateException.class, () -> filter.classify(new LineInterner().intern(tuple("A.java", List.of(), List.of(), List.of()))));
+    }
+}
@@ -0,0 +1,133 @@
+package nju.merge.core;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks Diff3Formatter against {@code git merge-file --diff3 -p}, the command it replaced, on generated files.
+ * Base lines are distinct and edits only bring in lines the base does not have, so each side has one minimal diff
+ * against the base and the output does not depend on how ties between equally short diffs are broken.
+ */
+class Diff3FormatterTest {
+
+    private static final int CASES = 400;
+
+    @TempDir
+    static Path dir;
+
+    private static boolean hasGit;
+
+    @BeforeAll
+    static void findGit(){
+        try {
+            hasGit = new ProcessBuilder("git", "--version").start().waitFor() == 0;
+        } catch (IOException | InterruptedException e) {
+            hasGit = false;
+        }
+    }
+
+    private static byte[] gitMergeFile(byte[] base, byte[] ours, byte[] theirs) throws Exception {
+        Path o = Files.write(dir.resolve("base"), base);
+        Path a = Files.write(dir.resolve("ours"), ours);
+        Path b = Files.write(dir.resolve("theirs"), theirs);
+        Process p = new ProcessBuilder("git", "merge-file", "--diff3", "-p", "-L", "ours", "-L", "base", "-L", "theirs",
+                a.toString(), o.toString(), b.toString()).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        byte[] out = p.getInputStream().readAllBytes();
+        int status = p.waitFor();
+        if(status < 0 || status > 127) throw new IOException("git merge-file failed with " + status);
+        return out;
+    }
+
+    /**
+     * Keeps, drops or replaces each base line and inserts lines between them. New lines come from a small pool
+     * shared by both sides, so that both sides sometimes make the same change.
+     */
+    private static List<String> edit(Random random, List<String> base){
+        List<String> lines = new ArrayList<>();
+        for(String line : base){
+            int op = random.nextInt(10);
+            if(op == 0) continue;
+            if(op == 1 || op == 2) insert(random, lines);
+            if(op != 1) lines.add(line);
+        }
+        if(random.nextInt(4) == 0) insert(random, lines);
+        return lines;
+    }
+
+    private static void insert(Random random, List<String> lines){
+        int n = 1 + random.nextInt(3);
+        for(int k = 0; k < n; k++) lines.add("new " + random.nextInt(4));
+    }
+
+    private static byte[] text(Random random, List<String> lines){
+        StringBuilder sb = new StringBuilder();
+        for(int k = 0; k < lines.size(); k++){
+            sb.append(lines.get(k));
+            // now and then the last line has no newline
+            if(k + 1 < lines.size() || random.nextInt(5) != 0) sb.append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void matchesGitMergeFile() throws Exception {
+        assumeTrue(hasGit, "git is not installed");
+        Random random = new Random(2);
+        int conflicts = 0;
+        for(int c = 0; c < CASES; c++){
+            List<String> base = new ArrayList<>();
+            int n = random.nextInt(16);
+            for(int k = 0; k < n; k++) base.add("line " + k);
+            byte[] o = text(random, base);
+            byte[] a = text(random, edit(random, base));
+            byte[] b = text(random, edit(random, base));
+            byte[] expected = gitMergeFile(o, a, b);
+            byte[] actual = Diff3Formatter.format(o, a, b);
+            int index = c;
+            assertArrayEquals(expected, actual, () -> "case " + index + "\nbase:\n" + string(o) + "\nours:\n" + string(a)
+                    + "\ntheirs:\n" + string(b) + "\ngit:\n" + string(expected) + "\nformatter:\n" + string(actual));
+            if(string(actual).contains("<<<<<<< ours")) conflicts++;
+        }
+        // the generated cases are not all clean merges
+        assertTrue(conflicts > CASES / 4, conflicts + " conflicts");
+    }
+
+    @Test
+    void conflictOnLastLineWithoutNewline() throws Exception {
+        byte[] merged = Diff3Formatter.format(bytes("a\nb"), bytes("a\nx"), bytes("a\ny"));
+        assertEquals("a\n<<<<<<< ours\nx\n||||||| base\nb\n=======\ny\n>>>>>>> theirs\n", string(merged));
+    }
+
+    @Test
+    void cleanMergeKeepsMissingNewline() throws Exception {
+        assertEquals("x\nb\nc\ny", string(Diff3Formatter.format(bytes("a\nb\nc\nd"), bytes("x\nb\nc\nd"), bytes("a\nb\nc\ny"))));
+    }
+
+    @Test
+    void binaryIsSkipped() throws Exception {
+        assertNull(Diff3Formatter.format(bytes("a\n"), new byte[]{'a', 0, '\n'}, bytes("b\n")));
+    }
+
+    private static byte[] bytes(String s){
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] bytes){
+        return bytes == null ? "null" : new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,203 @@
+package nju.merge.core;
+
+import nju.merge.entity.MalformedHunk;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HunkParserTest {
+
+    private record Error(int start, int line, MalformedHunk.Reason reason) {}
+
+    private final List<Error> errors = new ArrayList<>();
+
+    private List<HunkParser.Hunk> parse(String text, int markerSize){
+        SourceLines lines = ByteLines.split(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1);
+        return HunkParser.parse(lines, markerSize, (start, line, reason) -> errors.add(new Error(start, line, reason)));
+    }
+
+    private List<HunkParser.Hunk> parse(String text){
+        return parse(text, HunkParser.DEFAULT_MARKER_SIZE);
+    }
+
+    @Test
+    void mergeStyleHunk(){
+        List<HunkParser.Hunk> hunks = parse("""
+                a
+                <<<<<<< HEAD
+                ours
+                =======
+                theirs
+                >>>>>>> branch
+                b
+                """);
+        assertEquals(List.of(new HunkParser.Hunk(1, -1, 3, 5)), hunks);
+        assertEquals(List.of(), errors);
+    }
+
+    @Test
+    void diff3Hunks(){
+        List<HunkParser.Hunk> hunks = parse("""
+                <<<<<<< ours
+                x
+                ||||||| base
+                o
+                =======
+                y
+                >>>>>>> theirs
+                <<<<<<<
+                =======
+                >>>>>>>
+                <<<<<<< ours
+                |||||||
+                =======
+                >>>>>>> theirs
+                """);
+        assertEquals(List.of(new HunkParser.Hunk(0, 2, 4, 6), new HunkParser.Hunk(7, -1, 8, 9),
+                new HunkParser.Hunk(10, 11, 12, 13)), hunks);
+        assertEquals(List.of(), errors);
+    }
+
+    /**
+     * Runs of another length, markers glued to text and markers outside a hunk are content.
+     */
+    @Test
+    void wrongLengthMarkersAreContent(){
+        List<HunkParser.Hunk> hunks = parse("""
+                =======
+                >>>>>>>
+                |||||||
+                <<<<<<< HEAD
+                <<<<<<<<< HEAD
+                ||||||||| merged common ancestors
+                ======
+                ========
+                =========
+                >>>>>>>>>
+                <<<<<<<x
+                =======
+                >>>>>>
+                >>>>>>>> branch
+                >>>>>>> branch
+                """);
+        assertEquals(List.of(new HunkParser.Hunk(3, -1, 11, 14)), hunks);
+        assertEquals(List.of(), errors);
+    }
+
+    /**
+     * With conflict-marker-size=9, the 7-character markers are content.
+     */
+    @Test
+    void customMarkerSize(){
+        List<HunkParser.Hunk> hunks = parse("""
+                <<<<<<<<< HEAD
+                <<<<<<< inner
+                =======
+                >>>>>>> inner
+                ||||||||| base
+                =========
+                >>>>>>>>> branch
+                """, 9);
+        assertEquals(List.of(new HunkParser.Hunk(0, 4, 5, 6)), hunks);
+        assertEquals(List.of(), errors);
+    }
+
+    @Test
+    void crlfLines(){
+        List<HunkParser.Hunk> hunks = parse("a\r\n<<<<<<< HEAD\r\nx\r\n|||||||\r\no\r\n=======\r\ny\r\n>>>>>>> b\r\nz\r\n");
+        assertEquals(List.of(new HunkParser.Hunk(1, 3, 5, 7)), hunks);
+        assertEquals(List.of(), errors);
+    }
+
+    /**
+     * A second start marker reports the open hunk and starts a new one, which still parses.
+     */
+    @Test
+    void nestedStart(){
+        List<HunkParser.Hunk> hunks = parse("""
+                <<<<<<< a
+                x
+                <<<<<<< b
+                y
+                =======
+                z
+                >>>>>>> c
+                """);
+        assertEquals(List.of(new HunkParser.Hunk(2, -1, 4, 6)), hunks);
+        assertEquals(List.of(new Error(0, 2, MalformedHunk.Reason.NESTED_START)), errors);
+    }
+
+    @Test
+    void nestedStartAfterSeparator(){
+        List<HunkParser.Hunk> hunks = parse("""
+                <<<<<<< a
+                =======
+                <<<<<<< b
+                =======
+                >>>>>>> c
+                """);
+        assertEquals(List.of(new HunkParser.Hunk(2, -1, 3, 4)), hunks);
+        assertEquals(List.of(new Error(0, 2, MalformedHunk.Reason.NESTED_START)), errors);
+    }
+
+    /**
+     * The hunk is dropped and parsing goes on with the next one.
+     */
+    @Test
+    void missingSeparator(){
+        List<HunkParser.Hunk> hunks = parse("""
+                <<<<<<< a
+                x
+                >>>>>>> b
+                <<<<<<< a
+                =======
+                >>>>>>> b
+                """);
+        assertEquals(List.of(new HunkParser.Hunk(3, -1, 4, 5)), hunks);
+        assertEquals(List.of(new Error(0, 2, MalformedHunk.Reason.MISSING_SEPARATOR)), errors);
+    }
+
+    @Test
+    void unexpectedMarkers(){
+        List<HunkParser.Hunk> hunks = parse("""
+                <<<<<<< a
+                |||||||
+                |||||||
+                =======
+                >>>>>>> b
+                <<<<<<< a
+                =======
+                |||||||
+                >>>>>>> b
+                <<<<<<< a
+                =======
+                =======
+                >>>>>>> b
+                """);
+        assertEquals(List.of(), hunks);
+        assertEquals(List.of(new Error(0, 2, MalformedHunk.Reason.UNEXPECTED_MARKER),
+                new Error(5, 7, MalformedHunk.Reason.UNEXPECTED_MARKER),
+                new Error(9, 11, MalformedHunk.Reason.UNEXPECTED_MARKER)), errors);
+    }
+
+    @Test
+    void unterminated(){
+        List<HunkParser.Hunk> hunks = parse("""
+                <<<<<<< a
+                =======
+                >>>>>>> b
+                <<<<<<< a
+                x
+                =======
+                y
+                """);
+        assertEquals(List.of(new HunkParser.Hunk(0, -1, 1, 2)), hunks);
+        assertEquals(List.of(new Error(3, 7, MalformedHunk.Reason.UNTERMINATED)), errors);
+    }
+}
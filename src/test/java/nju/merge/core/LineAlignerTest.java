@@ -0,0 +1,150 @@
+package nju.merge.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks LineAligner against the scan it replaced, kept below as {@link #scan}.
+ */
+class LineAlignerTest {
+
+    private static final int CASES = 20000;
+
+    /**
+     * The alignment of DatasetCollector before the aligner: copies and reverses the context and the file,
+     * then takes the first longest match, stopping once it reaches 5 lines.
+     */
+    private static int scan(List<String> prefix, List<String> resolve, boolean reverse){
+        if(prefix.isEmpty()){
+            return reverse ? -1 : resolve.size();
+        }
+        List<String> snippet = new ArrayList<>();
+        List<String> source = new ArrayList<>();
+        if(reverse){
+            for(int i = prefix.size() - 1; i >= 0; i--) snippet.add(prefix.get(i));
+            for(int i = resolve.size() - 1; i >= 0; i--) source.add(resolve.get(i));
+        }else{
+            snippet.addAll(prefix);
+            source.addAll(resolve);
+        }
+        int ret = 0;
+        int maxAlign = -1;
+        for(int i = 0; i < source.size(); i++){
+            if(maxAlign >= 5) break;
+            if(source.get(i).equals(snippet.get(0))){
+                int j = i, k = 0;
+                while(++j < source.size() && ++k < snippet.size() && source.get(j).equals(snippet.get(k)));
+                if(k > maxAlign){
+                    maxAlign = k;
+                    ret = i;
+                }
+            }
+        }
+        if(reverse){
+            return source.size() - ret - 1;
+        }else return ret;
+    }
+
+    /**
+     * Few distinct lines, so that contexts match in many places and often for more than 5 lines.
+     */
+    private static List<String> lines(Random random, int size, int alphabet){
+        List<String> lines = new ArrayList<>();
+        for(int i = 0; i < size; i++) lines.add("line " + random.nextInt(alphabet));
+        return lines;
+    }
+
+    /**
+     * Up to 8 lines of the file, so that a match of the whole context can exceed the 5-line stop,
+     * sometimes ending on the file's last line, sometimes changed or extended past it.
+     */
+    private static List<String> context(Random random, List<String> resolve, int alphabet){
+        int length = 1 + random.nextInt(8);
+        if(resolve.isEmpty() || random.nextInt(4) == 0) return lines(random, length, alphabet);
+        int from = random.nextBoolean() ? Math.max(0, resolve.size() - length) : random.nextInt(resolve.size());
+        List<String> context = new ArrayList<>(resolve.subList(from, Math.min(resolve.size(), from + length)));
+        if(random.nextInt(3) == 0) context.set(random.nextInt(context.size()), "line " + random.nextInt(alphabet));
+        if(random.nextInt(3) == 0) context.add("line " + random.nextInt(alphabet));
+        if(random.nextBoolean()) context.add(0, "line " + random.nextInt(alphabet));
+        return context;
+    }
+
+    @Test
+    void alignLineMatchesScan(){
+        Random random = new Random(42);
+        DatasetCollector collector = new DatasetCollector();
+        for(int c = 0; c < CASES; c++){
+            int alphabet = 1 + random.nextInt(6);
+            List<String> resolve = lines(random, random.nextInt(40), alphabet);
+            List<String> context = random.nextInt(50) == 0 ? List.of() : context(random, resolve, alphabet);
+            for(boolean reverse : new boolean[]{true, false}){
+                assertEquals(scan(context, resolve, reverse), collector.alignLine(context, resolve, reverse),
+                        () -> "reverse=" + reverse + " context=" + context + " resolve=" + resolve);
+            }
+        }
+    }
+
+    /**
+     * Extraction aligns slices of the conflict file in place: the lines before a hunk and the lines after it.
+     * Lines read as bytes must align as their decoded strings do.
+     */
+    @Test
+    void slicesOfByteLinesMatchScan(){
+        Random random = new Random(7);
+        for(int c = 0; c < CASES; c++){
+            int alphabet = 1 + random.nextInt(6);
+            List<String> resolve = lines(random, random.nextInt(40), alphabet);
+            List<String> conflict = context(random, resolve, alphabet);
+            conflict.addAll(context(random, resolve, alphabet));
+            SourceLines conflictLines = bytes(conflict);
+            SourceLines resolveLines = bytes(resolve);
+            assertEquals(conflict.size(), conflictLines.size());
+            assertEquals(resolve.size(), resolveLines.size());
+            LineAligner aligner = new LineAligner(conflictLines, resolveLines);
+            int cut = random.nextInt(conflict.size() + 1);
+            List<String> before = conflict.subList(0, cut);
+            List<String> after = conflict.subList(cut, conflict.size());
+            assertEquals(scan(before, resolve, true), aligner.alignBefore(cut),
+                    () -> "before " + before + " resolve=" + resolve);
+            assertEquals(scan(after, resolve, false), aligner.alignAfter(cut),
+                    () -> "after " + after + " resolve=" + resolve);
+        }
+    }
+
+    /**
+     * A match of 5 lines stops the scan, so the longer one further on is not found.
+     */
+    @Test
+    void stopsAtFiveLines(){
+        List<String> resolve = List.of("a", "b", "c", "d", "e", "x", "a", "b", "c", "d", "e", "f", "g", "y");
+        List<String> context = List.of("a", "b", "c", "d", "e", "f", "g");
+        assertEquals(0, new DatasetCollector().alignLine(context, resolve, false));
+        assertEquals(scan(context, resolve, false), new DatasetCollector().alignLine(context, resolve, false));
+    }
+
+    /**
+     * A match running into the end of the file counts one line less: the 3 lines matched at the end
+     * only tie with the 2 matched first, and the first match is kept.
+     */
+    @Test
+    void matchAtEndOfFileCountsOneLess(){
+        List<String> resolve = List.of("a", "b", "x", "y", "a", "b", "c");
+        List<String> context = List.of("a", "b", "c", "d");
+        assertEquals(0, new DatasetCollector().alignLine(context, resolve, false));
+        assertEquals(scan(context, resolve, false), new DatasetCollector().alignLine(context, resolve, false));
+    }
+
+    private static SourceLines bytes(List<String> lines){
+        StringBuilder text = new StringBuilder();
+        for(String line : lines) text.append(line).append('\n');
+        return ByteLines.split(ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,86 @@
+package nju.merge.core;
+
+import nju.merge.entity.MergeTuple;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TupleDeduplicatorTest {
+
+    /**
+     * 20 lines per side, numbered from {@code first}, with line {@code changed} of r replaced if it is not -1.
+     */
+    private static MergeTuple tuple(String commit, int first, int changed){
+        MergeTuple tuple = new MergeTuple(commit, "src/A.java");
+        for(int k = first; k < first + 20; k++){
+            tuple.a.add("    int a" + k + " = " + k + ";");
+            tuple.b.add("    int b" + k + " = " + k + ";");
+            tuple.o.add("    int o" + k + " = " + k + ";");
+            tuple.r.add(k - first == changed ? "    int changed = 0;" : "    int r" + k + " = " + k + ";");
+        }
+        return tuple;
+    }
+
+    @Test
+    void exactDuplicatesAreDropped(){
+        TupleDeduplicator dedup = new TupleDeduplicator(1 << 20);
+        assertTrue(dedup.add(tuple("c1", 0, -1)));
+        // the commit and path are not part of the tuple's content
+        assertFalse(dedup.add(tuple("c2", 0, -1)));
+        assertEquals(1, dedup.getExactDuplicates());
+        assertEquals(0, dedup.getNearDuplicates());
+        assertEquals(1, dedup.getClusters());
+    }
+
+    /**
+     * One line changed out of 80, or the same lines indented differently, is a near duplicate.
+     */
+    @Test
+    void nearDuplicatesAreDropped(){
+        TupleDeduplicator dedup = new TupleDeduplicator(1 << 20);
+        assertTrue(dedup.add(tuple("c1", 0, -1)));
+        assertFalse(dedup.add(tuple("c2", 0, 7)));
+        MergeTuple indented = tuple("c3", 0, -1);
+        indented.a.replaceAll(line -> "\t" + line.trim());
+        assertFalse(dedup.add(indented));
+        assertEquals(0, dedup.getExactDuplicates());
+        assertEquals(2, dedup.getNearDuplicates());
+        assertEquals(1, dedup.getClusters());
+    }
+
+    @Test
+    void distinctTuplesAreKept(){
+        TupleDeduplicator dedup = new TupleDeduplicator(1 << 20);
+        for(int i = 0; i < 1000; i++){
+            assertTrue(dedup.add(tuple("c" + i, i * 20, -1)));
+        }
+        // different sides with the same lines are different tuples
+        MergeTuple swapped = tuple("s", 0, -1);
+        List<String> a = new ArrayList<>(swapped.a);
+        swapped.a = swapped.b;
+        swapped.b = a;
+        assertTrue(dedup.add(swapped));
+        assertTrue(dedup.add(new MergeTuple("e", "src/A.java")));
+        assertEquals(1002, dedup.getClusters());
+        assertEquals(0, dedup.getExactDuplicates() + dedup.getNearDuplicates());
+    }
+
+    /**
+     * Once the smallest tables are full, tuples are still classified and the report covers the first clusters.
+     */
+    @Test
+    void smallBudget(){
+        TupleDeduplicator dedup = new TupleDeduplicator(0);
+        for(int i = 0; i < 5000; i++){
+            dedup.add(tuple("c" + i, i * 20, -1));
+        }
+        assertFalse(dedup.add(tuple("d", 4999 * 20, -1)));
+        assertEquals(5001, dedup.getTuples());
+        dedup.report();
+    }
+}
@@ -0,0 +1,111 @@
+package nju.merge.core;
+
+import nju.merge.entity.MergeTuple;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TupleIndexTest {
+
+    private static final String C1 = "1111111111111111111111111111111111111111";
+    private static final String C2 = "2222222222222222222222222222222222222222";
+
+    @TempDir
+    static Path dir;
+
+    private static TupleIndex index;
+
+    private static MergeTuple tuple(String commit, String path, List<String> a, List<String> b, List<String> r){
+        MergeTuple tuple = new MergeTuple(commit, path);
+        tuple.a.addAll(a);
+        tuple.b.addAll(b);
+        tuple.r.addAll(r);
+        return tuple;
+    }
+
+    /**
+     * 0-1: streamed tuples of junit4; 2: a tuple of junit4 from an absolute scenario directory,
+     * 3: one from a relative scenario directory; 4: a tuple of another project.
+     */
+    @BeforeAll
+    static void build() throws IOException {
+        try (TupleIndexWriter writer = new TupleIndexWriter(dir.toString())) {
+            writer.add("junit4", tuple(C1, "src/main/A.java", List.of("a"), List.of("b"), List.of("a", "b")));
+            writer.add("junit4", tuple(C1, "src/test/ATest.java", List.of("a"), List.of("b"), List.of("b")));
+            writer.add("junit4", tuple(null, "/data/output/conflictFiles/junit4/" + C2 + "/src/main/B.java",
+                    List.of("x", "y"), List.of("z"), List.of("w")));
+            writer.add("junit4", tuple("", "junit4/" + C2 + "/src/main/C.java", List.of("a"), List.of("b"), List.of()));
+            writer.add("spring", tuple(C1, "src/main/A.java", List.of("a"), List.of("b"), List.of("b", "a")));
+        }
+        index = new TupleIndex(dir.toString());
+    }
+
+    private static int[] query(String... conditions){
+        TupleIndex.Query q = new TupleIndex.Query();
+        q.limit = 100;
+        for(String condition : conditions){
+            String[] kv = condition.split("=", 2);
+            q.set(kv[0], kv[1]);
+        }
+        TupleIndex.Result result = index.query(q);
+        assertEquals(result.ids().length, result.total());
+        return result.ids();
+    }
+
+    @Test
+    void stats(){
+        assertEquals(5, index.size());
+        assertEquals(Map.of("junit4", 4, "spring", 1), index.getProjects());
+        assertEquals(2, index.getCategoryCounts().get("Concat"));
+    }
+
+    @Test
+    void queries(){
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, query());
+        assertArrayEquals(new int[]{0, 1, 2, 3}, query("project=junit4"));
+        assertArrayEquals(new int[]{0, 1, 4}, query("commit=" + C1));
+        assertArrayEquals(new int[]{0, 4}, query("path=src/main/A.java"));
+        assertArrayEquals(new int[]{0, 2, 3}, query("project=junit4", "pathPrefix=src/main/"));
+        assertArrayEquals(new int[]{0, 4}, query("category=concat"));
+        assertArrayEquals(new int[]{1}, query("category=acceptOneSide", "exclude=lackOfResolution"));
+        assertArrayEquals(new int[]{0, 2, 4}, query("minLines=4"));
+        assertArrayEquals(new int[]{1, 3}, query("maxLines=3"));
+        assertArrayEquals(new int[]{}, query("project=none"));
+    }
+
+    /**
+     * Scenario directories, absolute or relative, are indexed under their commit and the path in the repository.
+     */
+    @Test
+    void scenarioDirectoriesAreRelativized(){
+        assertArrayEquals(new int[]{2, 3}, query("commit=" + C2));
+        assertEquals("src/main/B.java", index.get(2).path);
+        assertEquals(C2, index.get(2).commitId);
+        assertEquals("src/main/C.java", index.get(3).path);
+        assertEquals("junit4", index.project(3));
+    }
+
+    @Test
+    void categoryNames(){
+        IllegalArgumentException ambiguous = assertThrows(IllegalArgumentException.class, () -> query("category=c"));
+        assertTrue(ambiguous.getMessage().contains("ambiguous"), ambiguous.getMessage());
+        assertTrue(ambiguous.getMessage().contains("Complete tuples") && ambiguous.getMessage().contains("Concat"));
+        IllegalArgumentException unknown = assertThrows(IllegalArgumentException.class, () -> query("category=nothing"));
+        assertTrue(unknown.getMessage().contains("unknown category"), unknown.getMessage());
+        assertArrayEquals(new int[]{0, 1, 2, 4}, query("category=complete"));
+    }
+
+    private static void assertArrayEquals(int[] expected, int[] actual){
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+}